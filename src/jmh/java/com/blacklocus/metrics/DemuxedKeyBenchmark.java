@@ -0,0 +1,97 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.google.common.base.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.blacklocus.metrics.Constants.DEF_DIM_NAME_TYPE;
+import static com.blacklocus.metrics.Constants.DEF_DIM_VAL_COUNTER_COUNT;
+
+/**
+ * Micro-benchmarks of metric name parsing and permutation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DemuxedKeyBenchmark {
+
+    @Param({
+            "Simple",
+            "Name token color=green machine=localhost",
+            "Name tag* color=green* machine=localhost* env=prod*",
+            "Name tag* other* color=green* machine=localhost* env=prod*"
+    })
+    String name;
+
+    DemuxedKey key;
+
+    static final Function<MetricDatum, MetricDatum> STAMP = new Function<MetricDatum, MetricDatum>() {
+        @Override
+        public MetricDatum apply(MetricDatum datum) {
+            return datum.withValue(1.0);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        key = new DemuxedKey(name);
+    }
+
+    @Benchmark
+    public DemuxedKey construct() {
+        return new DemuxedKey(name);
+    }
+
+    @Benchmark
+    public void permutableChainIteration(Blackhole blackhole) {
+        for (Iterable<String> names : key.nameChain) {
+            for (String token : names) {
+                blackhole.consume(token);
+            }
+        }
+        if (key.dimensionChain != null) {
+            for (Iterable<Dimension> dimensions : key.dimensionChain) {
+                for (Dimension dimension : dimensions) {
+                    blackhole.consume(dimension);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Iterable<MetricDatum> newDatums() {
+        return key.newDatums(DEF_DIM_NAME_TYPE, DEF_DIM_VAL_COUNTER_COUNT, STAMP);
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one full {@link CloudWatchReporter#report(SortedMap, SortedMap, SortedMap, SortedMap, SortedMap)}: translation
+ * of every metric to MetricDatums, filtering, batching and submission to a {@link StubCloudWatch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportBenchmark {
+
+    /**
+     * Number of metrics in the registry.
+     */
+    @Param({"1000", "10000", "100000"})
+    int registrySize;
+
+    /**
+     * counters: only counters. mixed: an even spread over all metric types. sampling: only histograms and timers.
+     */
+    @Param({"counters", "mixed", "sampling"})
+    String metricMix;
+
+    /**
+     * Number of permutable (<code>*</code>) tokens in each metric name. Each doubles the datums per metric.
+     */
+    @Param({"0", "2", "4"})
+    int permuteMarkers;
+
+    /**
+     * Global reporter dimensions, appended to every metric.
+     */
+    @Param({"", "env=benchmark machine=localhost*"})
+    String globalDimensions;
+
+    CloudWatchReporter reporter;
+
+    SortedMap<String, Gauge> gauges;
+    SortedMap<String, Counter> counters;
+    SortedMap<String, Histogram> histograms;
+    SortedMap<String, Meter> meters;
+    SortedMap<String, Timer> timers;
+
+    @Setup
+    public void setUp() {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < registrySize; i++) {
+            String name = metricName(i);
+            switch (metricType(i)) {
+                case 0:
+                    final long value = i;
+                    registry.register(name, new Gauge<Long>() {
+                        @Override
+                        public Long getValue() {
+                            return value;
+                        }
+                    });
+                    break;
+                case 1:
+                    registry.counter(name);
+                    break;
+                case 2:
+                    registry.meter(name);
+                    break;
+                case 3:
+                    registry.histogram(name);
+                    break;
+                default:
+                    registry.timer(name);
+            }
+        }
+
+        reporter = new CloudWatchReporterBuilder()
+                .withNamespace(ReportBenchmark.class.getSimpleName())
+                .withRegistry(registry)
+                .withClient(new StubCloudWatch().client())
+                .withDimensions(globalDimensions.isEmpty() ? null : globalDimensions)
+                .build();
+
+        gauges = registry.getGauges(MetricFilter.ALL);
+        counters = registry.getCounters(MetricFilter.ALL);
+        histograms = registry.getHistograms(MetricFilter.ALL);
+        meters = registry.getMeters(MetricFilter.ALL);
+        timers = registry.getTimers(MetricFilter.ALL);
+    }
+
+    /**
+     * Moves every metric so that nothing is skipped as unchanged. JMH discourages per-invocation fixtures for short
+     * benchmarks, but a report of a thousand metrics or more is well over the millisecond where that matters.
+     */
+    @Setup(Level.Invocation)
+    public void touchMetrics() {
+        for (Counter counter : counters.values()) {
+            counter.inc();
+        }
+        for (Meter meter : meters.values()) {
+            meter.mark();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.update(42);
+        }
+        for (Timer timer : timers.values()) {
+            timer.update(42, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public void report() {
+        reporter.report(gauges, counters, histograms, meters, timers);
+    }
+
+    /**
+     * A report as scheduled, reading the reporter's own view of the registry rather than maps built up front.
+     */
+    @Benchmark
+    public void scheduledReport() {
+        reporter.report();
+    }
+
+    private String metricName(int i) {
+        StringBuilder name = new StringBuilder("Benchmark").append(i % 100)
+                .append(" shard=").append(i);
+        for (int p = 0; p < permuteMarkers; p++) {
+            name.append(p % 2 == 0 ? " tag" : " dim" + p + "=value").append(p).append('*');
+        }
+        return name.toString();
+    }
+
+    private int metricType(int i) {
+        if ("counters".equals(metricMix)) {
+            return 1;
+        } else if ("sampling".equals(metricMix)) {
+            return 3 + i % 2;
+        } else {
+            return i % 5;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.google.common.util.concurrent.Futures;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link AmazonCloudWatchAsync} that accepts every PutMetricData request immediately without going anywhere, so
+ * that benchmarks measure only the reporter. Any other operation is unsupported.
+ */
+class StubCloudWatch implements InvocationHandler {
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong datums = new AtomicLong();
+
+    AmazonCloudWatchAsync client() {
+        return (AmazonCloudWatchAsync) Proxy.newProxyInstance(
+                AmazonCloudWatchAsync.class.getClassLoader(), new Class[]{AmazonCloudWatchAsync.class}, this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        if (!"putMetricDataAsync".equals(method.getName())) {
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        PutMetricDataRequest request = (PutMetricDataRequest) args[0];
+        requests.incrementAndGet();
+        datums.addAndGet(request.getMetricData().size());
+        if (args.length > 1 && args[1] != null) {
+            ((AsyncHandler<PutMetricDataRequest, Object>) args[1]).onSuccess(request, null);
+        }
+        return Futures.immediateFuture(null);
+    }
+}
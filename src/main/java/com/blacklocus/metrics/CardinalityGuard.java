@@ -0,0 +1,192 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.blacklocus.metrics.Constants.DIMENSION_OVERFLOW_VALUE;
+import static com.blacklocus.metrics.Constants.NAME_DIMENSION_SEPARATOR;
+import static com.blacklocus.metrics.Constants.NAME_PERMUTE_MARKER;
+import static com.blacklocus.metrics.Constants.NAME_TOKEN_DELIMITER;
+import static com.blacklocus.metrics.Constants.NAME_TOKEN_DELIMITER_RGX;
+
+/**
+ * Limits how many distinct values each dimension of each metric name may take, so that a value that should never
+ * have been a dimension, e.g. a request ID, cannot explode the number of parsed names, datums and CloudWatch metrics.
+ * Per metric name and dimension name, the first so many distinct values are admitted and remembered exactly. Every
+ * other value is rewritten to {@value Constants#DIMENSION_OVERFLOW_VALUE}, so that all of them report as one metric,
+ * and is only counted in a {@link HyperLogLog} sketch of the dimension's true cardinality.
+ * <p>
+ * Admission is sticky for the life of the guard. Thread safe.
+ */
+class CardinalityGuard {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CardinalityGuard.class);
+
+    private final int limit;
+
+    /**
+     * Values of each dimension, by metric name and dimension name.
+     */
+    private final ConcurrentMap<String, DimensionValues> dimensions = new ConcurrentHashMap<String, DimensionValues>();
+
+    private final AtomicLong foldedNames = new AtomicLong();
+    private final AtomicLong foldedDatums = new AtomicLong();
+
+    /**
+     * @param limit distinct values admitted per metric name and dimension name
+     */
+    CardinalityGuard(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @param name encoded metric name
+     * @return the name with every dimension value beyond its limit rewritten, or the very same name if none is
+     */
+    String guard(String name) {
+        String[] tokens = name.split(NAME_TOKEN_DELIMITER_RGX);
+        String metricName = metricName(tokens);
+
+        boolean folded = false;
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (!token.contains(NAME_DIMENSION_SEPARATOR)) {
+                continue;
+            }
+            boolean permutable = token.endsWith(NAME_PERMUTE_MARKER);
+            String[] dimension = (permutable ? token.substring(0, token.length() - 1) : token)
+                    .split(NAME_DIMENSION_SEPARATOR, 2);
+            if (!dimensionValues(metricName, dimension[0]).admit(dimension[1])) {
+                tokens[i] = dimension[0] + NAME_DIMENSION_SEPARATOR + DIMENSION_OVERFLOW_VALUE +
+                        (permutable ? NAME_PERMUTE_MARKER : "");
+                folded = true;
+            }
+        }
+        if (!folded) {
+            return name;
+        }
+        foldedNames.incrementAndGet();
+        return StringUtils.join(tokens, NAME_TOKEN_DELIMITER);
+    }
+
+    /**
+     * @param count of datums merged away by folding
+     */
+    void foldedDatums(int count) {
+        foldedDatums.addAndGet(count);
+    }
+
+    /**
+     * @return estimated number of distinct values seen of the dimension of the metric name, exact up to the limit
+     */
+    long cardinality(String metricName, String dimensionName) {
+        DimensionValues values = dimensions.get(metricName + NAME_DIMENSION_SEPARATOR + dimensionName);
+        return values == null ? 0 : values.cardinality();
+    }
+
+    /**
+     * @return cumulative number of metric names parsed with a dimension value rewritten
+     */
+    long getFoldedNames() {
+        return foldedNames.get();
+    }
+
+    /**
+     * @return cumulative number of datums merged into others by folding
+     */
+    long getFoldedDatums() {
+        return foldedDatums.get();
+    }
+
+    private DimensionValues dimensionValues(String metricName, String dimensionName) {
+        // Metric names cannot contain the separator, so this is unambiguous.
+        String key = metricName + NAME_DIMENSION_SEPARATOR + dimensionName;
+        DimensionValues values = dimensions.get(key);
+        if (values == null) {
+            DimensionValues created = new DimensionValues(metricName, dimensionName);
+            values = dimensions.putIfAbsent(key, created);
+            if (values == null) {
+                values = created;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the name tokens without permute markers, as CloudWatch would see the name with none omitted
+     */
+    private static String metricName(String[] tokens) {
+        List<String> names = new ArrayList<String>(tokens.length);
+        for (String token : tokens) {
+            if (!token.contains(NAME_DIMENSION_SEPARATOR)) {
+                names.add(token.endsWith(NAME_PERMUTE_MARKER) ? token.substring(0, token.length() - 1) : token);
+            }
+        }
+        return StringUtils.join(names, NAME_TOKEN_DELIMITER);
+    }
+
+    private class DimensionValues {
+
+        private final String metricName;
+        private final String dimensionName;
+        private final Set<String> admitted = new HashSet<String>();
+
+        /**
+         * Every distinct value, admitted or not, once the limit is reached.
+         */
+        private HyperLogLog sketch = null;
+
+        DimensionValues(String metricName, String dimensionName) {
+            this.metricName = metricName;
+            this.dimensionName = dimensionName;
+        }
+
+        synchronized boolean admit(String value) {
+            if (DIMENSION_OVERFLOW_VALUE.equals(value) || admitted.contains(value)) {
+                return true;
+            }
+            if (admitted.size() < limit) {
+                admitted.add(value);
+                return true;
+            }
+            if (sketch == null) {
+                LOG.warn("Dimension {} of metric {} has more than {} distinct values. Further values are reported " +
+                        "as {}.", dimensionName, metricName, limit, DIMENSION_OVERFLOW_VALUE);
+                sketch = new HyperLogLog();
+                for (String admittedValue : admitted) {
+                    sketch.add(admittedValue);
+                }
+            }
+            sketch.add(value);
+            return false;
+        }
+
+        synchronized long cardinality() {
+            return sketch == null ? admitted.size() : Math.max(admitted.size() + 1, sketch.estimate());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Metric;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which metrics are worth sending again, by remembering per metric identity the last gauge value sent and
+ * when anything was last sent for it. Unchanged gauges and idle histograms and timers are suppressed, except that
+ * they are sent once per heartbeat interval anyway so that CloudWatch sees they are still alive.
+ * <p>
+ * State is kept in {@link IdentityStripes}, so that parallel translation shards can consult it concurrently.
+ */
+class ChangeDetector {
+
+    private final long heartbeatNanos;
+    private final Ticker ticker;
+    private final IdentityStripes<Stripe> stripes = new IdentityStripes<Stripe>(new Supplier<Stripe>() {
+        @Override
+        public Stripe get() {
+            return new Stripe();
+        }
+    });
+
+    /**
+     * @param heartbeatMillis after which an unchanged metric is sent anyway, or 0 or less to never send it until it
+     *                        changes
+     * @param ticker          to measure the heartbeat interval with
+     */
+    ChangeDetector(long heartbeatMillis, Ticker ticker) {
+        this.heartbeatNanos = heartbeatMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(heartbeatMillis) : Long.MAX_VALUE;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return whether to send the gauge's value, which is then remembered as sent
+     */
+    boolean gaugeDue(Metric gauge, double value) {
+        long bits = Double.doubleToLongBits(value);
+        long now = ticker.read();
+        Stripe stripe = stripes.of(gauge);
+        synchronized (stripe) {
+            if (stripe.sentAt.containsKey(gauge) && stripe.values.get(gauge) == bits
+                    && now - stripe.sentAt.get(gauge) < heartbeatNanos) {
+                return false;
+            }
+            stripe.values.put(gauge, bits);
+            stripe.sentAt.put(gauge, now);
+            return true;
+        }
+    }
+
+    /**
+     * @param moved whether the histogram or timer recorded anything since it was last reported
+     * @return whether to send its snapshot, which is then remembered as sent
+     */
+    boolean samplingDue(Metric sampling, boolean moved) {
+        long now = ticker.read();
+        Stripe stripe = stripes.of(sampling);
+        synchronized (stripe) {
+            if (!moved && stripe.sentAt.containsKey(sampling) && now - stripe.sentAt.get(sampling) < heartbeatNanos) {
+                return false;
+            }
+            stripe.sentAt.put(sampling, now);
+            return true;
+        }
+    }
+
+    /**
+     * Drops the state of a metric removed from the registry.
+     */
+    void forget(Metric metric) {
+        Stripe stripe = stripes.of(metric);
+        synchronized (stripe) {
+            stripe.values.remove(metric);
+            stripe.sentAt.remove(metric);
+        }
+    }
+
+    private static class Stripe {
+        final IdentityLongMap<Metric> values = new IdentityLongMap<Metric>();
+        final IdentityLongMap<Metric> sentAt = new IdentityLongMap<Metric>();
+    }
+}
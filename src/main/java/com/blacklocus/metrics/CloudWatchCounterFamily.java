@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * A {@link MetricFamily} of {@link Counter}s.
+ * <pre>
+ *     CloudWatchCounterFamily requests = new CloudWatchCounterFamily("Requests", "endpoint", "status*");
+ *     requests.get("/foo", "200").inc();
+ * </pre>
+ */
+public class CloudWatchCounterFamily extends MetricFamily<Counter> {
+
+    /**
+     * @param name       encoded name of every child
+     * @param labelNames names of the dimensions whose values distinguish children
+     */
+    public CloudWatchCounterFamily(String name, String... labelNames) {
+        super(name, Counter.class, labelNames);
+    }
+
+    @Override
+    protected Counter newMetric() {
+        return new Counter();
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+
+/**
+ * A {@link MetricFamily} of {@link Histogram}s, by default with the same reservoir as
+ * {@link com.codahale.metrics.MetricRegistry#histogram(String)}. Override {@link #newMetric()} for another, e.g. a
+ * {@link StatisticSetHistogram} or {@link HdrHistogramHistogram}.
+ */
+public class CloudWatchHistogramFamily extends MetricFamily<Histogram> {
+
+    /**
+     * @param name       encoded name of every child
+     * @param labelNames names of the dimensions whose values distinguish children
+     */
+    public CloudWatchHistogramFamily(String name, String... labelNames) {
+        super(name, Histogram.class, labelNames);
+    }
+
+    @Override
+    protected Histogram newMetric() {
+        return new Histogram(new ExponentiallyDecayingReservoir());
+    }
+}
@@ -28,6 +28,7 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
 import com.codahale.metrics.Sampling;
 import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
@@ -35,21 +36,41 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
-import com.google.common.collect.Collections2;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.math.LongMath;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -66,6 +87,27 @@ public class CloudWatchReporter extends ScheduledReporter {
 
     private static final Logger LOG = LoggerFactory.getLogger(CloudWatchReporter.class);
 
+    /**
+     * Limits how much spooled data each report replays, so that a backlog drains without crowding out current data.
+     */
+    private static final int SPOOL_REPLAY_REQUESTS_PER_REPORT = 50;
+
+    /**
+     * Number of metrics translated at a time on the reporting thread before their datums are streamed on to
+     * submission, which bounds the datums held at once.
+     */
+    private static final int STREAM_CHUNK_METRICS = 256;
+
+    /**
+     * Number of translation shards submitted ahead of the one whose datums are being streamed on to submission.
+     */
+    private static final int TRANSLATION_SHARDS_AHEAD = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * {@link #tierNextDueNanos} of a tier not yet reported.
+     */
+    private static final long NEVER_REPORTED = Long.MIN_VALUE;
+
 
     /**
      * @deprecated maintained for backwards compatibility. Moved to {@link Constants#NAME_TOKEN_DELIMITER_RGX}
@@ -171,13 +213,197 @@ public class CloudWatchReporter extends ScheduledReporter {
      */
     private final String metricNamespace;
 
+    private final MetricRegistry registry;
+
+    private final MetricFilter metricFilter;
+
+    /**
+     * Registered metrics, kept up to date by the {@link #registryListener} so that reports need not walk the whole
+     * registry. Filtered by the {@link #metricFilter} as they are read.
+     */
+    private final RegistryView view;
+
     private final AmazonCloudWatchAsync cloudWatch;
 
+    /**
+     * Parsed metric names by their encoded registry name. Parsing is a pure function of the name and the global
+     * {@link #dimensions}, so entries may be evicted at any time and are rebuilt on next use. Entries of metrics
+     * removed from the registry are dropped by the {@link #registryListener}. Metrics of the {@link #view} keep their
+     * parsed name once reported, so this bounds only the names of metrics given to
+     * {@link #report(SortedMap, SortedMap, SortedMap, SortedMap, SortedMap)} directly.
+     */
+    private LoadingCache<String, DemuxedKey> demuxedKeys = newDemuxedKeyCache(Constants.DEF_DEMUXED_KEY_CACHE_SIZE);
+
+    private final MetricRegistryListener registryListener = new RegistryListener();
+
+    /**
+     * Whether the {@link #registryListener} is registered, which it is from the first {@link #start(long, TimeUnit)}
+     * or {@link #report()} until {@link #stop()}. A reporter that is never started is not referenced by the registry.
+     */
+    private boolean listening = false;
+
+    private boolean stopped = false;
+
+    /**
+     * Splits each report into requests. Retains the legacy datums per request unless configured otherwise.
+     */
+    private PutMetricDataBatcher batcher = new PutMetricDataBatcher(
+            Constants.LEGACY_PUT_METRIC_DATA_MAX_DATUMS, Constants.DEF_PUT_METRIC_DATA_MAX_BYTES);
+    private int putMetricDataMaxDatums = Constants.LEGACY_PUT_METRIC_DATA_MAX_DATUMS;
+    private int putMetricDataMaxBytes = Constants.DEF_PUT_METRIC_DATA_MAX_BYTES;
+
+    private int putMetricDataMaxInFlight = Constants.DEF_PUT_METRIC_DATA_MAX_IN_FLIGHT;
+    private long putMetricDataTimeoutMillis = Constants.DEF_PUT_METRIC_DATA_TIMEOUT_MILLIS;
+
+    /**
+     * Sends the data of each report. Rebuilt when its settings change.
+     */
+    private PutMetricDataPipeline pipeline;
+
+    private int retryQueueMaxDatums = Constants.DEF_RETRY_QUEUE_MAX_DATUMS;
+    private int retryMaxAttempts = Constants.DEF_RETRY_MAX_ATTEMPTS;
+    private long retryBackoffMillis = Constants.DEF_RETRY_BACKOFF_MILLIS;
+
+    /**
+     * Disk spool of requests the retry queue cannot hold, or null if not spooling.
+     */
+    private PutMetricDataSpool spool;
+
+    /**
+     * Whether the last completed request succeeded, so that spooled data is only replayed to a working CloudWatch.
+     */
+    private volatile boolean cloudWatchAccepting = false;
+
+    /**
+     * Failed requests to re-send on later reports. Rebuilt when its settings change.
+     */
+    private PutMetricDataRetryQueue retryQueue = newRetryQueue();
+
+    /**
+     * Whether to send histogram and timer snapshots as Values/Counts distributions rather than StatisticSets.
+     * Defaults to false.
+     */
+    private boolean distributions = false;
+
+    /**
+     * Whether to merge datums of the same metric identity within a report before sending. Defaults to false.
+     */
+    private boolean aggregateDuplicates = false;
+
+    /**
+     * Rewrites dimension values beyond the distinct value limit of their metric name and dimension name, or null if
+     * there is no limit. Defaults to null.
+     */
+    private volatile CardinalityGuard cardinalityGuard = null;
+
+    /**
+     * Parsed keys of names folded by the {@link #cardinalityGuard}, by folded name, shared by all metrics folded into
+     * each.
+     */
+    private final ConcurrentMap<String, DemuxedKey> foldedKeys = new ConcurrentHashMap<String, DemuxedKey>();
+
+    /**
+     * Datums of folded keys, by identity, from translation until the {@link ReportStream} routes them to be merged.
+     * Weakly held, so that datums a report drops on the way, e.g. by filtering or failing, do not accumulate.
+     */
+    private final Set<MetricDatum> foldedDatums =
+            Collections.newSetFromMap(new MapMaker().weakKeys().<MetricDatum, Boolean>makeMap());
+
+    /**
+     * Runs shards of the translation of metrics to datums in parallel, or null to translate on the reporting thread.
+     * Not owned by the reporter, which never shuts it down. Defaults to null.
+     */
+    private ExecutorService translationExecutor = null;
+
+    /**
+     * Maximum number of metrics of one type in each shard given to the {@link #translationExecutor}.
+     */
+    private int translationShardSize = Constants.DEF_TRANSLATION_SHARD_SIZE;
+
     /**
      * We only submit the difference in counters since the last submission. This way we don't have to reset the counters
      * within this application.
      */
-    private final Map<Counting, Long> lastPolledCounts = new HashMap<Counting, Long>();
+    private final IdentityStripes<IdentityLongMap<Counting>> lastPolledCounts =
+            new IdentityStripes<IdentityLongMap<Counting>>(new Supplier<IdentityLongMap<Counting>>() {
+                @Override
+                public IdentityLongMap<Counting> get() {
+                    return new IdentityLongMap<Counting>();
+                }
+            });
+
+    /**
+     * Handed from the {@link #registryListener} to the reporting thread, which drops their {@link #lastPolledCounts}
+     * and {@link #changeDetector} state.
+     */
+    private final Queue<Metric> removedMetrics = new ConcurrentLinkedQueue<Metric>();
+
+    /**
+     * Whether to suppress unchanged gauges and idle histograms and timers. Defaults to false.
+     */
+    private boolean changeDetection = false;
+
+    /**
+     * Milliseconds after which metrics suppressed by change detection are sent anyway.
+     */
+    private long changeDetectionHeartbeatMillis = Constants.DEF_CHANGE_DETECTION_HEARTBEAT_MILLIS;
+
+    /**
+     * Remembers what was last sent per metric, or null without change detection. Rebuilt when its settings change.
+     */
+    private ChangeDetector changeDetector = null;
+
+    /**
+     * Groups of metrics reported at their own periods. Metrics in none of them are in the default tier, at index
+     * tiers.length of per-tier state, which is reported at the period given to {@link #start(long, TimeUnit)}.
+     */
+    private ReportTier[] tiers = new ReportTier[0];
+
+    /**
+     * Per tier, the {@link #ticker} time at which it is next due to be reported. Only touched under this monitor.
+     */
+    private long[] tierNextDueNanos = new long[]{NEVER_REPORTED};
+
+    /**
+     * Period of the default tier, or 0 until started, in which case every report is due.
+     */
+    private long defaultPeriodNanos = 0;
+
+    /**
+     * Period of the scheduler driving all tiers, or 0 until started.
+     */
+    private long tickNanos = 0;
+
+    /**
+     * CloudWatch storage resolution for datums of the tier being reported, or null for the default.
+     */
+    private Integer tierStorageResolution = null;
+
+    /**
+     * Measures when tiers are due. Replaceable for tests.
+     */
+    Ticker ticker = Ticker.systemTicker();
+
+    /**
+     * The reporter's measurements of itself, or null until asked for.
+     */
+    private volatile ReporterMetrics selfMetrics = null;
+
+    /**
+     * Registry the {@link #selfMetrics} are registered in, or null.
+     */
+    private MetricRegistry selfMetricsRegistry = null;
+
+    /**
+     * Namespace to send the {@link #selfMetrics} to after each report, or null to not send them.
+     */
+    private String selfMetricsNamespace = null;
+    private RegistryView selfMetricsView = null;
+
+    /**
+     * Totals of the report in progress, or null if neither {@link #selfMetrics} nor {@link ReporterEvents} need them.
+     */
+    private volatile ReportCycle reportCycle = null;
 
 
     /**
@@ -217,6 +443,15 @@ public class CloudWatchReporter extends ScheduledReporter {
     private String typeDimValHistoStats = DEF_DIM_VAL_HISTO_STATS;
     private String typeDimValTimerSamples = DEF_DIM_VAL_TIMER_SAMPLES;
     private String typeDimValTimerStats = DEF_DIM_VAL_TIMER_STATS;
+    private String typeDimValHistoPercentile = Constants.DEF_DIM_VAL_HISTO_PERCENTILE;
+    private String typeDimValTimerPercentile = Constants.DEF_DIM_VAL_TIMER_PERCENTILE;
+
+    /**
+     * Quantiles of histogram and timer snapshots to send as datums of their own, and the labels appended to the
+     * percentile type dimension values for each.
+     */
+    private double[] percentiles = new double[0];
+    private String[] percentileLabels = new String[0];
 
 
     /**
@@ -263,7 +498,12 @@ public class CloudWatchReporter extends ScheduledReporter {
         super(registry, "CloudWatchReporter:" + metricNamespace, metricFilter, TimeUnit.MINUTES, TimeUnit.MINUTES);
 
         this.metricNamespace = metricNamespace;
+        this.registry = registry;
+        this.metricFilter = metricFilter != null ? metricFilter : MetricFilter.ALL;
+        this.view = new RegistryView(this.metricFilter);
         this.cloudWatch = cloudWatch;
+
+        this.pipeline = newPipeline();
     }
 
     /**
@@ -274,6 +514,10 @@ public class CloudWatchReporter extends ScheduledReporter {
      */
     public CloudWatchReporter withDimensions(String dimensions) {
         this.dimensions = dimensions;
+        // Global dimensions are part of every parsed key.
+        this.demuxedKeys.invalidateAll();
+        this.foldedKeys.clear();
+        this.view.resetKeys();
         return this;
     }
 
@@ -389,6 +633,28 @@ public class CloudWatchReporter extends ScheduledReporter {
         return this;
     }
 
+    /**
+     * @param typeDimValHistoPercentile prefix of the value of the "metric type" dimension added to CloudWatch
+     *                                  submissions of {@link Histogram} percentiles, followed by the percentile, e.g.
+     *                                  "histoP99". Defaults to <b>{@value Constants#DEF_DIM_VAL_HISTO_PERCENTILE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withTypeDimValHistoPercentile(String typeDimValHistoPercentile) {
+        this.typeDimValHistoPercentile = typeDimValHistoPercentile;
+        return this;
+    }
+
+    /**
+     * @param typeDimValTimerPercentile prefix of the value of the "metric type" dimension added to CloudWatch
+     *                                  submissions of {@link Timer} percentiles, followed by the percentile, e.g.
+     *                                  "timerP99". Defaults to <b>{@value Constants#DEF_DIM_VAL_TIMER_PERCENTILE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withTypeDimValTimerPercentile(String typeDimValTimerPercentile) {
+        this.typeDimValTimerPercentile = typeDimValTimerPercentile;
+        return this;
+    }
+
     /**
      * This filter is applied right before submission to CloudWatch. This filter can access decoded metric name elements
      * such as {@link MetricDatum#getDimensions()}.
@@ -409,178 +675,1059 @@ public class CloudWatchReporter extends ScheduledReporter {
         return this;
     }
 
-    @Override
-    public void report(SortedMap<String, Gauge> gauges,
-                       SortedMap<String, Counter> counters,
-                       SortedMap<String, Histogram> histograms,
-                       SortedMap<String, Meter> meters,
-                       SortedMap<String, Timer> timers) {
-
-        try {
-            // Just an estimate to reduce resizing.
-            List<MetricDatum> data = new ArrayList<MetricDatum>(
-                    gauges.size() + counters.size() + meters.size() + 2 * histograms.size() + 2 * timers.size()
-            );
-
-            // Translate various metric classes to MetricDatum
-            for (Map.Entry<String, Gauge> gaugeEntry : gauges.entrySet()) {
-                reportGauge(gaugeEntry, typeDimValGauge, data);
-            }
-            for (Map.Entry<String, Counter> counterEntry : counters.entrySet()) {
-                reportCounter(counterEntry, typeDimValCounterCount, data);
-            }
-            for (Map.Entry<String, Meter> meterEntry : meters.entrySet()) {
-                reportCounter(meterEntry, typeDimValMeterCount, data);
-            }
-            for (Map.Entry<String, Histogram> histogramEntry : histograms.entrySet()) {
-                reportCounter(histogramEntry, typeDimValHistoSamples, data);
-                reportSampling(histogramEntry, typeDimValHistoStats, 1.0, data);
-            }
-            for (Map.Entry<String, Timer> timerEntry : timers.entrySet()) {
-                reportCounter(timerEntry, typeDimValTimerSamples, data);
-                reportSampling(timerEntry, typeDimValTimerStats, 0.000001, data); // nanos -> millis
-            }
-
-            // Filter out unreportable entries.
-            Collection<MetricDatum> nonEmptyData = Collections2.filter(data, new Predicate<MetricDatum>() {
-                @Override
-                public boolean apply(MetricDatum input) {
-                    if (input == null) {
-                        return false;
-                    } else if (input.getStatisticValues() != null) {
-                        // CloudWatch rejects any Statistic Sets with sample count == 0, which it probably should reject.
-                        return input.getStatisticValues().getSampleCount() > 0;
-                    }
-                    return true;
-                }
-            });
-
-            // Whether to use local "now" (true, new Date()) or cloudwatch service "now" (false, leave null).
-            if (timestampLocal) {
-                Date now = new Date();
-                for (MetricDatum datum : nonEmptyData) {
-                    datum.withTimestamp(now);
-                }
-            }
-
-            // Finally, apply any user-level filter.
-            Collection<MetricDatum> filtered = Collections2.filter(nonEmptyData, reporterFilter);
-
-            // Each CloudWatch API request may contain at maximum 20 datums. Break into partitions of 20.
-            Iterable<List<MetricDatum>> dataPartitions = Iterables.partition(filtered, 20);
-            List<Future<?>> cloudWatchFutures = Lists.newArrayListWithExpectedSize(filtered.size());
-
-            // Submit asynchronously with threads.
-            for (List<MetricDatum> dataSubset : dataPartitions) {
-                cloudWatchFutures.add(cloudWatch.putMetricDataAsync(new PutMetricDataRequest()
-                        .withNamespace(metricNamespace)
-                        .withMetricData(dataSubset)));
-            }
-
-            // Wait for CloudWatch putMetricData futures to be fulfilled.
-            for (Future<?> cloudWatchFuture : cloudWatchFutures) {
-                // We can't let an exception leak out of here, or else the reporter will cease running as described in
-                // java.util.concurrent.ScheduledExecutorService.scheduleAtFixedRate(Runnable, long, long, TimeUnit unit)
-                try {
-                    // See what happened in case of an error.
-                    cloudWatchFuture.get();
-                } catch (Exception e) {
-                    LOG.error("Exception reporting metrics to CloudWatch. The data in this CloudWatch API request " +
-                            "may have been discarded, did not make it to CloudWatch.", e);
-                }
-            }
-
-            LOG.debug("Sent {} metric data to CloudWatch. namespace: {}", filtered.size(), metricNamespace);
-
-        } catch (RuntimeException e) {
-            LOG.error("Error marshalling CloudWatch metrics.", e);
-        }
+    /**
+     * @param demuxedKeyCacheSize maximum number of parsed metric names to retain between reports. Metric names are
+     *                            otherwise re-parsed every report. Should be at least the number of reported metrics.
+     *                            Defaults to <b>{@value Constants#DEF_DEMUXED_KEY_CACHE_SIZE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withDemuxedKeyCacheSize(int demuxedKeyCacheSize) {
+        this.demuxedKeys = newDemuxedKeyCache(demuxedKeyCacheSize);
+        return this;
     }
 
+    /**
+     * @param distributions whether to send histogram and timer snapshots as CloudWatch Values/Counts distributions
+     *                      rather than StatisticSets, so that CloudWatch can compute percentiles. Samples are compressed
+     *                      into at most 150 log-linear buckets, keeping sample count and sum exact. Snapshots of
+     *                      {@link StatisticSetReservoir}s have no samples and are still sent as StatisticSets.
+     *                      Defaults to false.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withDistributions(boolean distributions) {
+        this.distributions = distributions;
+        return this;
+    }
 
-    void reportGauge(Map.Entry<String, Gauge> gaugeEntry, String typeDimValue, List<MetricDatum> data) {
-        Gauge gauge = gaugeEntry.getValue();
-
-        Object valueObj = gauge.getValue();
-        if (valueObj == null) {
-            return;
+    /**
+     * @param quantiles of histogram and timer snapshots to send as datums of their own, each in [0..1], e.g. 0.5,
+     *                  0.99 and 0.999. Each is sent with the percentile type dimension value followed by the
+     *                  percentile without its decimal point, e.g. "timerP50", "timerP99" and "timerP999". Percentiles
+     *                  are taken from the same snapshot as the statistics. They are exact for the interval with an
+     *                  {@link HdrHistogramReservoir}, and of the sliding sample with the default reservoirs. Snapshots
+     *                  of {@link StatisticSetReservoir}s keep no values and are not sent percentiles.
+     *                  Defaults to none.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withPercentiles(double... quantiles) {
+        String[] labels = new String[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            labels[i] = percentileLabel(quantiles[i]);
         }
+        this.percentiles = quantiles.clone();
+        this.percentileLabels = labels;
+        return this;
+    }
 
-        String valueStr = valueObj.toString();
-        if (NumberUtils.isNumber(valueStr)) {
-            final Number value = NumberUtils.createNumber(valueStr);
+    /**
+     * @param aggregateDuplicates whether to merge datums with the same name, dimensions, unit and timestamp within a
+     *                            report before sending, e.g. the copies of many counters all permuted down to the same
+     *                            aggregate. Merged datums are sent as one StatisticSet with the same sample count, sum,
+     *                            minimum and maximum, so CloudWatch statistics are unchanged. Defaults to false.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withAggregateDuplicates(boolean aggregateDuplicates) {
+        this.aggregateDuplicates = aggregateDuplicates;
+        return this;
+    }
 
-            DemuxedKey key = new DemuxedKey(appendGlobalDimensions(gaugeEntry.getKey()));
-            Iterables.addAll(data, key.newDatums(typeDimName, typeDimValue, new Function<MetricDatum, MetricDatum>() {
-                @Override
-                public MetricDatum apply(MetricDatum datum) {
-                    return datum.withValue(value.doubleValue());
-                }
-            }));
-        }
+    /**
+     * @param dimensionCardinalityLimit distinct values of each dimension of each metric name to report as they are.
+     *                                  Metrics with any further value are reported with that dimension's value
+     *                                  replaced by <b>{@value Constants#DIMENSION_OVERFLOW_VALUE}</b>, and their datums
+     *                                  merged within each report, so that a stray request ID or user name in a metric
+     *                                  name cannot grow CloudWatch metrics without bound. Which values were admitted
+     *                                  is remembered for the life of the reporter, or until this is set again.
+     *                                  Defaults to <b>{@value Constants#DEF_DIMENSION_CARDINALITY_LIMIT}</b>,
+     *                                  unlimited.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withDimensionCardinalityLimit(int dimensionCardinalityLimit) {
+        this.cardinalityGuard = dimensionCardinalityLimit > 0 ? new CardinalityGuard(dimensionCardinalityLimit) : null;
+        // Parsed keys may have been folded by the previous guard.
+        this.demuxedKeys.invalidateAll();
+        this.foldedKeys.clear();
+        this.view.resetKeys();
+        return this;
     }
 
-    void reportCounter(Map.Entry<String, ? extends Counting> entry, String typeDimValue, List<MetricDatum> data) {
-        Counting metric = entry.getValue();
-        final long diff = diffLast(metric);
-        if (diff == 0) {
-            // Don't submit metrics that have not changed. No reason to keep these alive. Also saves on CloudWatch
-            // costs.
-            return;
+    /**
+     * @param tiers of metrics to report at their own periods rather than the period given to
+     *              {@link #start(long, TimeUnit)}. Each metric belongs to the first tier that matches it. One scheduler
+     *              drives all tiers, ticking at the greatest common divisor of their periods. Tiers shorter than a minute
+     *              are sent as CloudWatch high resolution metrics. Defaults to none. Set before starting.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withTiers(ReportTier... tiers) {
+        long[] nextDue = new long[tiers.length + 1];
+        Arrays.fill(nextDue, NEVER_REPORTED);
+        synchronized (this) {
+            this.tiers = tiers.clone();
+            this.tierNextDueNanos = nextDue;
+            this.view.resetTiers();
         }
-
-        DemuxedKey key = new DemuxedKey(appendGlobalDimensions(entry.getKey()));
-        Iterables.addAll(data, key.newDatums(typeDimName, typeDimValue, new Function<MetricDatum, MetricDatum>() {
-            @Override
-            public MetricDatum apply(MetricDatum datum) {
-                return datum.withValue((double) diff).withUnit(StandardUnit.Count);
-            }
-        }));
+        return this;
     }
 
     /**
-     * @param rescale the submitted sum by this multiplier. 1.0 is the identity (no rescale).
+     * @param changeDetection whether to skip gauges whose value has not changed since it was last sent, and histograms
+     *                        and timers which recorded nothing since they were last sent, except once every
+     *                        {@link #withChangeDetectionHeartbeatMillis(long)}. Counters and meters already skip
+     *                        reports without change. Defaults to false.
+     * @return this (for chaining)
      */
-    void reportSampling(Map.Entry<String, ? extends Sampling> entry, String typeDimValue, double rescale, List<MetricDatum> data) {
-        Sampling metric = entry.getValue();
-        Snapshot snapshot = metric.getSnapshot();
-        double scaledSum = sum(snapshot.getValues()) * rescale;
-        final StatisticSet statisticSet = new StatisticSet()
-                .withSum(scaledSum)
-                .withSampleCount((double) snapshot.size())
-                .withMinimum((double) snapshot.getMin() * rescale)
-                .withMaximum((double) snapshot.getMax() * rescale);
-
-        DemuxedKey key = new DemuxedKey(appendGlobalDimensions(entry.getKey()));
-        Iterables.addAll(data, key.newDatums(typeDimName, typeDimValue, new Function<MetricDatum, MetricDatum>() {
-            @Override
-            public MetricDatum apply(MetricDatum datum) {
-                return datum.withStatisticValues(statisticSet);
-            }
-        }));
+    public CloudWatchReporter withChangeDetection(boolean changeDetection) {
+        this.changeDetection = changeDetection;
+        this.changeDetector = newChangeDetector();
+        return this;
     }
 
+    /**
+     * @param changeDetectionHeartbeatMillis after which a metric skipped by change detection is sent anyway, so that its
+     *                                       CloudWatch metric does not go missing. 0 or less never sends it until it
+     *                                       changes. Defaults to
+     *                                       <b>{@value Constants#DEF_CHANGE_DETECTION_HEARTBEAT_MILLIS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withChangeDetectionHeartbeatMillis(long changeDetectionHeartbeatMillis) {
+        this.changeDetectionHeartbeatMillis = changeDetectionHeartbeatMillis;
+        this.changeDetector = newChangeDetector();
+        return this;
+    }
 
-    private long diffLast(Counting metric) {
-        long count = metric.getCount();
-
-        Long lastCount = lastPolledCounts.get(metric);
-        lastPolledCounts.put(metric, count);
+    /**
+     * @param translationExecutor to translate metrics to datums in parallel on, in shards of
+     *                            {@link #withTranslationShardSize(int)} metrics of one type each, or null to translate
+     *                            on the reporting thread. Worth it for registries of tens of thousands of metrics.
+     *                            Datums come out in the same order either way. The executor is not shut down by the
+     *                            reporter. Defaults to null.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withTranslationExecutor(ExecutorService translationExecutor) {
+        this.translationExecutor = translationExecutor;
+        return this;
+    }
 
-        if (lastCount == null) {
-            lastCount = 0L;
-        }
-        return count - lastCount;
+    /**
+     * @param translationShardSize maximum number of metrics of one type in each shard given to the
+     *                             {@link #withTranslationExecutor(ExecutorService)}.
+     *                             Defaults to <b>{@value Constants#DEF_TRANSLATION_SHARD_SIZE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withTranslationShardSize(int translationShardSize) {
+        this.translationShardSize = translationShardSize;
+        return this;
     }
 
-    private long sum(long[] values) {
-        long sum = 0L;
-        for (long value : values) sum += value;
-        return sum;
+    /**
+     * @param putMetricDataMaxDatums maximum number of datums per PutMetricData request. CloudWatch accepts up to 1000.
+     *                               Defaults to <b>{@value Constants#LEGACY_PUT_METRIC_DATA_MAX_DATUMS}</b> when the
+     *                               reporter is constructed directly, for compatibility, and to
+     *                               <b>{@value Constants#DEF_PUT_METRIC_DATA_MAX_DATUMS}</b> in the builder
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withPutMetricDataMaxDatums(int putMetricDataMaxDatums) {
+        this.putMetricDataMaxDatums = putMetricDataMaxDatums;
+        this.batcher = new PutMetricDataBatcher(putMetricDataMaxDatums, putMetricDataMaxBytes);
+        return this;
     }
 
+    /**
+     * @param putMetricDataMaxBytes maximum estimated size of a PutMetricData request, as form-encoded by the SDK.
+     *                              Defaults to <b>{@value Constants#DEF_PUT_METRIC_DATA_MAX_BYTES}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withPutMetricDataMaxBytes(int putMetricDataMaxBytes) {
+        this.putMetricDataMaxBytes = putMetricDataMaxBytes;
+        this.batcher = new PutMetricDataBatcher(putMetricDataMaxDatums, putMetricDataMaxBytes);
+        return this;
+    }
 
-    private String appendGlobalDimensions(String metric) {
+    /**
+     * @param putMetricDataMaxInFlight maximum number of PutMetricData requests outstanding at once. Reporting only
+     *                                 waits on CloudWatch while this many are outstanding.
+     *                                 Defaults to <b>{@value Constants#DEF_PUT_METRIC_DATA_MAX_IN_FLIGHT}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withPutMetricDataMaxInFlight(int putMetricDataMaxInFlight) {
+        this.putMetricDataMaxInFlight = putMetricDataMaxInFlight;
+        this.pipeline = newPipeline();
+        return this;
+    }
+
+    /**
+     * @param putMetricDataTimeoutMillis milliseconds after which an outstanding PutMetricData request is cancelled.
+     *                                   Defaults to <b>{@value Constants#DEF_PUT_METRIC_DATA_TIMEOUT_MILLIS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withPutMetricDataTimeoutMillis(long putMetricDataTimeoutMillis) {
+        this.putMetricDataTimeoutMillis = putMetricDataTimeoutMillis;
+        this.pipeline = newPipeline();
+        return this;
+    }
+
+    /**
+     * @param retryQueueMaxDatums maximum number of datums from failed requests held to be re-sent on later reports.
+     *                            The oldest are dropped to make room. 0 disables retries.
+     *                            Defaults to <b>{@value Constants#DEF_RETRY_QUEUE_MAX_DATUMS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withRetryQueueMaxDatums(int retryQueueMaxDatums) {
+        this.retryQueueMaxDatums = retryQueueMaxDatums;
+        this.retryQueue = newRetryQueue();
+        return this;
+    }
+
+    /**
+     * @param retryMaxAttempts maximum number of times a request is sent, including the first.
+     *                         Defaults to <b>{@value Constants#DEF_RETRY_MAX_ATTEMPTS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+        this.retryQueue = newRetryQueue();
+        return this;
+    }
+
+    /**
+     * @param retryBackoffMillis milliseconds before a failed request is first retried, doubling with each further
+     *                           failure and randomly jittered. Retries are sent on the first report after this elapses.
+     *                           Defaults to <b>{@value Constants#DEF_RETRY_BACKOFF_MILLIS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.retryQueue = newRetryQueue();
+        return this;
+    }
+
+    /**
+     * Spools requests that the retry queue cannot hold to disk, and any still queued when the reporter stops, so
+     * they survive long outages and restarts. Spooled data is replayed, oldest first, once CloudWatch is accepting
+     * requests again, except for data CloudWatch would reject as more than two weeks old.
+     *
+     * @param directory    for the spool's segment files, created if necessary. Only one reporter may use it at a time.
+     * @param segmentBytes size of each memory-mapped segment file.
+     *                     Defaults to <b>{@value Constants#DEF_SPOOL_SEGMENT_BYTES}</b> in the builder
+     * @param maxBytes     total size of the spool, beyond which the oldest segment is deleted.
+     *                     Defaults to <b>{@value Constants#DEF_SPOOL_MAX_BYTES}</b> in the builder
+     * @param syncPolicy   when to force spooled data to disk. Defaults to <b>SEGMENT</b> in the builder
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter withSpool(File directory, int segmentBytes, long maxBytes, SpoolSyncPolicy syncPolicy) {
+        try {
+            this.spool = new PutMetricDataSpool(directory, segmentBytes, maxBytes, syncPolicy);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open spool directory " + directory, e);
+        }
+        this.retryQueue = newRetryQueue();
+        return this;
+    }
+
+    /**
+     * @return cumulative number of datums re-sent after their request failed
+     */
+    public long getRetriedDatumCount() {
+        return retryQueue.getRetriedDatums();
+    }
+
+    /**
+     * @return cumulative number of datums that did not make it to CloudWatch and will not be retried
+     */
+    public long getDroppedDatumCount() {
+        long dropped = retryQueue.getDroppedDatums();
+        if (spool != null) {
+            dropped += spool.getDroppedDatums() + spool.getExpiredDatums();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return cumulative number of datums written to the disk spool, 0 if not spooling
+     */
+    public long getSpooledDatumCount() {
+        return spool == null ? 0 : spool.getSpooledDatums();
+    }
+
+    /**
+     * @return cumulative number of metric names reported with a dimension value replaced by
+     * {@value Constants#DIMENSION_OVERFLOW_VALUE}, 0 if there is no dimension cardinality limit
+     */
+    public long getFoldedMetricCount() {
+        CardinalityGuard guard = cardinalityGuard;
+        return guard == null ? 0 : guard.getFoldedNames();
+    }
+
+    /**
+     * @return cumulative number of datums merged into others after their dimension value was replaced by
+     * {@value Constants#DIMENSION_OVERFLOW_VALUE}, 0 if there is no dimension cardinality limit
+     */
+    public long getFoldedDatumCount() {
+        CardinalityGuard guard = cardinalityGuard;
+        return guard == null ? 0 : guard.getFoldedDatums();
+    }
+
+    /**
+     * @param metricName    name of the metric as sent to CloudWatch, without dimensions, e.g. "Requests" for
+     *                      "Requests path=/a*"
+     * @param dimensionName of the metric
+     * @return estimated number of distinct values the dimension was registered with, exact up to the dimension
+     * cardinality limit, 0 if there is no limit
+     */
+    public long getDimensionCardinality(String metricName, String dimensionName) {
+        CardinalityGuard guard = cardinalityGuard;
+        return guard == null ? 0 : guard.cardinality(metricName, dimensionName);
+    }
+
+    /**
+     * @param selfMetricsRegistry to register the reporter's measurements of itself in, e.g. the registry it reports,
+     *                            to be reported along with everything else, or one exposed over JMX. They are
+     *                            removed from it when the reporter stops. See {@link ReporterMetrics} for what is
+     *                            measured. Not together with a self metrics namespace. Defaults to none.
+     * @return this (for chaining)
+     * @throws IllegalArgumentException if a self metrics namespace is set
+     */
+    public synchronized CloudWatchReporter withSelfMetricsRegistry(MetricRegistry selfMetricsRegistry) {
+        checkOneSelfMetricsDestination(selfMetricsRegistry, selfMetricsNamespace);
+        if (this.selfMetricsRegistry != null) {
+            for (String name : selfMetrics.getMetrics().keySet()) {
+                this.selfMetricsRegistry.remove(name);
+            }
+        }
+        this.selfMetricsRegistry = selfMetricsRegistry;
+        if (selfMetricsRegistry != null) {
+            selfMetricsRegistry.registerAll(selfMetrics());
+        }
+        return this;
+    }
+
+    /**
+     * @param selfMetricsNamespace CloudWatch namespace to send the reporter's measurements of itself to, at the period
+     *                             given to {@link #start(long, TimeUnit)}, or null to not send them. Not together
+     *                             with a self metrics registry. Defaults to null.
+     * @return this (for chaining)
+     * @throws IllegalArgumentException if a self metrics registry is set
+     */
+    public synchronized CloudWatchReporter withSelfMetricsNamespace(String selfMetricsNamespace) {
+        checkOneSelfMetricsDestination(selfMetricsRegistry, selfMetricsNamespace);
+        this.selfMetricsNamespace = selfMetricsNamespace;
+        if (selfMetricsNamespace == null) {
+            this.selfMetricsView = null;
+        } else {
+            RegistryView selfMetricsView = new RegistryView(MetricFilter.ALL);
+            for (Map.Entry<String, Metric> entry : selfMetrics().getMetrics().entrySet()) {
+                selfMetricsView.add(entry.getKey(), entry.getValue());
+            }
+            this.selfMetricsView = selfMetricsView;
+        }
+        return this;
+    }
+
+    /**
+     * Each read of a counter takes its change since the last read, and each read of an interval timer resets it, so
+     * self metrics sent to a namespace and read from a registry too would each see only part of every change.
+     */
+    private static void checkOneSelfMetricsDestination(MetricRegistry selfMetricsRegistry,
+                                                       String selfMetricsNamespace) {
+        if (selfMetricsRegistry != null && selfMetricsNamespace != null) {
+            throw new IllegalArgumentException(
+                    "Self metrics go to either a registry or a namespace, not both: " + selfMetricsNamespace);
+        }
+    }
+
+    private ReporterMetrics selfMetrics() {
+        if (selfMetrics == null) {
+            selfMetrics = new ReporterMetrics(this, metricNamespace);
+        }
+        return selfMetrics;
+    }
+
+    /**
+     * @param family whose children to report along with the registry's metrics, not subject to the reporter's
+     *               {@link MetricFilter}. A family should be added to only one reporter.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter addFamily(MetricFamily<?> family) {
+        view.addFamily(family);
+        return this;
+    }
+
+    /**
+     * @param family to stop reporting the children of
+     * @return this (for chaining)
+     */
+    public CloudWatchReporter removeFamily(MetricFamily<?> family) {
+        if (view.removeFamily(family)) {
+            for (ReportedMetric<?> child : family.children()) {
+                removedMetrics.add(child.metric);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Starts reporting at the given period, or with {@link #withTiers(ReportTier...)}, as often as the tiers need with
+     * metrics not in any tier reported at the given period.
+     */
+    @Override
+    public void start(long period, TimeUnit unit) {
+        long tick = unit.toNanos(period);
+        synchronized (this) {
+            listen();
+            for (ReportTier tier : tiers) {
+                tick = LongMath.gcd(tick, tier.getPeriodNanos());
+            }
+            defaultPeriodNanos = unit.toNanos(period);
+            tickNanos = tick;
+        }
+        if (tiers.length == 0) {
+            super.start(period, unit);
+        } else {
+            super.start(tick, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Reports the metrics of each tier that is due, or all metrics if there are no tiers. Metrics are read from the
+     * reporter's own view of the registry, rather than rebuilt from the registry as {@link ScheduledReporter} would.
+     * Self metrics sent to their own namespace go along with the metrics of the reporter's own period.
+     */
+    @Override
+    public void report() {
+        synchronized (this) {
+            listen();
+            boolean defaultTierDue = true;
+            ReportCycle cycle = beginReportCycle();
+            try {
+                if (tiers.length == 0) {
+                    reportEntries(view.gauges(), view.counters(), view.histograms(), view.meters(), view.timers());
+                } else {
+                    defaultTierDue = reportDueTiers();
+                }
+            } finally {
+                endReportCycle(cycle);
+            }
+            // Outside the cycle, so that sending them is not measured in them.
+            if (selfMetricsView != null && defaultTierDue) {
+                reportSelfMetrics();
+            }
+        }
+    }
+
+    /**
+     * Registers the {@link #registryListener} unless it already is or the reporter was stopped. The registry replays
+     * its existing metrics to a new listener, filling the {@link #view}.
+     */
+    private void listen() {
+        if (!listening && !stopped) {
+            registry.addListener(registryListener);
+            listening = true;
+        }
+    }
+
+    /**
+     * @return whether the metrics of no tier, at the reporter's own period, were due
+     */
+    private boolean reportDueTiers() {
+        long now = ticker.read();
+        boolean defaultTierDue = false;
+        for (int tier = 0; tier <= tiers.length; tier++) {
+            if (!tierDue(tier, now)) {
+                continue;
+            }
+            defaultTierDue |= tier == tiers.length;
+            Predicate<ReportedMetric<?>> inTier = new InTier(tier);
+            tierStorageResolution = tier < tiers.length && tiers[tier].isHighResolution() ? 1 : null;
+            try {
+                reportEntries(Iterables.filter(view.gauges(), inTier),
+                        Iterables.filter(view.counters(), inTier),
+                        Iterables.filter(view.histograms(), inTier),
+                        Iterables.filter(view.meters(), inTier),
+                        Iterables.filter(view.timers(), inTier));
+            } finally {
+                tierStorageResolution = null;
+            }
+        }
+        return defaultTierDue;
+    }
+
+    /**
+     * Sends the reporter's own metrics under their separate namespace. They are few, so are translated in one go.
+     */
+    private void reportSelfMetrics() {
+        try {
+            List<MetricDatum> data = new ArrayList<MetricDatum>();
+            translate(MetricKind.GAUGE, Lists.newArrayList(selfMetricsView.gauges()), data);
+            translate(MetricKind.COUNTER, Lists.newArrayList(selfMetricsView.counters()), data);
+            translate(MetricKind.TIMER, Lists.newArrayList(selfMetricsView.timers()), data);
+            ReportStream stream = new ReportStream(selfMetricsNamespace);
+            stream.accept(data);
+            stream.finish();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted submitting reporter metrics to CloudWatch.");
+        } catch (RuntimeException e) {
+            LOG.error("Error marshalling CloudWatch reporter metrics.", e);
+        }
+    }
+
+    /**
+     * @return whether the tier is due, in which case its next report is scheduled
+     */
+    private boolean tierDue(int tier, long now) {
+        long period = tier < tiers.length ? tiers[tier].getPeriodNanos() : defaultPeriodNanos;
+        long nextDue = tierNextDueNanos[tier];
+        // Allow for the scheduler firing a little early, up to half a tick.
+        if (nextDue != NEVER_REPORTED && now - nextDue < -tickNanos / 2) {
+            return false;
+        }
+        // Stay on schedule rather than drift with each late report, unless a whole period was missed.
+        nextDue = nextDue == NEVER_REPORTED ? now + period : nextDue + period;
+        tierNextDueNanos[tier] = nextDue - now < -tickNanos / 2 ? now + period : nextDue;
+        return true;
+    }
+
+    /**
+     * @return index of the tier of the metric, tiers.length if in none
+     */
+    private int tierOf(ReportedMetric<?> metric) {
+        if (metric.tier == ReportedMetric.UNRESOLVED_TIER) {
+            int tier = tiers.length;
+            for (int i = 0; i < tiers.length; i++) {
+                if (tiers[i].getFilter().matches(metric.name, metric.metric)) {
+                    tier = i;
+                    break;
+                }
+            }
+            metric.tier = tier;
+        }
+        return metric.tier;
+    }
+
+    /**
+     * Stops reporting, then waits up to the PutMetricData timeout for outstanding requests to complete. If spooling,
+     * anything left to retry is spooled.
+     */
+    @Override
+    public void stop() {
+        try {
+            super.stop();
+            if (!pipeline.awaitCompletion(putMetricDataTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOG.warn("PutMetricData requests still outstanding after stopping. namespace: {}", metricNamespace);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                stopped = true;
+                if (listening) {
+                    registry.removeListener(registryListener);
+                    listening = false;
+                }
+            }
+            if (selfMetricsRegistry != null) {
+                for (String name : selfMetrics.getMetrics().keySet()) {
+                    selfMetricsRegistry.remove(name);
+                }
+            }
+            retryQueue.spillAll();
+            if (spool != null) {
+                spool.close();
+            }
+        }
+    }
+
+    @Override
+    public void report(SortedMap<String, Gauge> gauges,
+                       SortedMap<String, Counter> counters,
+                       SortedMap<String, Histogram> histograms,
+                       SortedMap<String, Meter> meters,
+                       SortedMap<String, Timer> timers) {
+        ReportCycle cycle = beginReportCycle();
+        try {
+            reportEntries(gauges.entrySet(), counters.entrySet(), histograms.entrySet(), meters.entrySet(),
+                    timers.entrySet());
+        } finally {
+            endReportCycle(cycle);
+        }
+    }
+
+    /**
+     * Starts keeping the totals of a report, if anything needs them.
+     *
+     * @return the report's totals, or null if not kept
+     */
+    private ReportCycle beginReportCycle() {
+        Object reportEvent = ReporterEvents.beginReportCycle();
+        ReportCycle cycle = selfMetrics != null || reportEvent != null ? new ReportCycle(reportEvent) : null;
+        reportCycle = cycle;
+        return cycle;
+    }
+
+    private void endReportCycle(ReportCycle cycle) {
+        reportCycle = null;
+        if (cycle != null) {
+            if (selfMetrics != null) {
+                selfMetrics.reported(cycle);
+            }
+            ReporterEvents.commitReportCycle(cycle.getEvent(), metricNamespace, cycle, cycle.getSubmittedDatums(),
+                    cycle.getRequests());
+        }
+    }
+
+    /**
+     * Reports the metrics of each collection of entries by name, in order.
+     */
+    private void reportEntries(Iterable<? extends Map.Entry<String, ? extends Metric>> gauges,
+                               Iterable<? extends Map.Entry<String, ? extends Metric>> counters,
+                               Iterable<? extends Map.Entry<String, ? extends Metric>> histograms,
+                               Iterable<? extends Map.Entry<String, ? extends Metric>> meters,
+                               Iterable<? extends Map.Entry<String, ? extends Metric>> timers) {
+
+        ReportCycle cycle = reportCycle;
+        try {
+            forgetRemovedMetrics();
+
+            // Re-send earlier failures that are due, oldest first.
+            for (PutMetricDataRequest retry : retryQueue.poll()) {
+                pipeline.submit(retry);
+            }
+
+            // Replay spooled data, oldest first, but only to a CloudWatch that is accepting requests.
+            if (spool != null && cloudWatchAccepting) {
+                PutMetricDataRequest replay;
+                for (int i = 0; i < SPOOL_REPLAY_REQUESTS_PER_REPORT && (replay = spool.poll()) != null; i++) {
+                    pipeline.submit(replay);
+                }
+            }
+
+            // Translate various metric classes to MetricDatum, a chunk at a time, each streamed through to submission
+            // before the next is translated.
+            ReportStream stream = new ReportStream(metricNamespace);
+            if (translationExecutor == null) {
+                List<MetricDatum> chunk = new ArrayList<MetricDatum>();
+                translateInChunks(MetricKind.GAUGE, gauges, chunk, stream);
+                translateInChunks(MetricKind.COUNTER, counters, chunk, stream);
+                translateInChunks(MetricKind.METER, meters, chunk, stream);
+                translateInChunks(MetricKind.HISTOGRAM, histograms, chunk, stream);
+                translateInChunks(MetricKind.TIMER, timers, chunk, stream);
+            } else {
+                translateInParallel(gauges, counters, histograms, meters, timers, stream);
+            }
+            int submitted = stream.finish();
+            if (cycle != null) {
+                cycle.submitted(submitted, stream.requests);
+            }
+
+            LOG.debug("Submitted {} metric data to CloudWatch. namespace: {}", submitted, metricNamespace);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted submitting metrics to CloudWatch. The rest of this report was discarded.");
+        } catch (RuntimeException e) {
+            LOG.error("Error marshalling CloudWatch metrics.", e);
+        }
+    }
+
+
+    /**
+     * @param entries of metrics of the given kind
+     * @param data    to add the translated datums to
+     */
+    @SuppressWarnings("unchecked")
+    private void translate(MetricKind kind, Collection<? extends Map.Entry<String, ? extends Metric>> entries,
+                           List<MetricDatum> data) {
+        switch (kind) {
+            case GAUGE:
+                for (Map.Entry<String, ? extends Metric> entry : entries) {
+                    reportGauge((Map.Entry<String, Gauge>) entry, typeDimValGauge, data);
+                }
+                break;
+            case COUNTER:
+                for (Map.Entry<String, ? extends Metric> entry : entries) {
+                    reportCounter((Map.Entry<String, Counter>) entry, typeDimValCounterCount, data);
+                }
+                break;
+            case METER:
+                for (Map.Entry<String, ? extends Metric> entry : entries) {
+                    reportCounter((Map.Entry<String, Meter>) entry, typeDimValMeterCount, data);
+                }
+                break;
+            case HISTOGRAM:
+                for (Map.Entry<String, ? extends Metric> entry : entries) {
+                    Map.Entry<String, Histogram> histogramEntry = (Map.Entry<String, Histogram>) entry;
+                    long samples = reportCounter(histogramEntry, typeDimValHistoSamples, data);
+                    if (changeDetector == null || changeDetector.samplingDue(histogramEntry.getValue(), samples != 0)) {
+                        reportSampling(histogramEntry, typeDimValHistoStats, typeDimValHistoPercentile, 1.0, data);
+                    }
+                }
+                break;
+            case TIMER:
+                for (Map.Entry<String, ? extends Metric> entry : entries) {
+                    Map.Entry<String, Timer> timerEntry = (Map.Entry<String, Timer>) entry;
+                    long samples = reportCounter(timerEntry, typeDimValTimerSamples, data);
+                    if (changeDetector == null || changeDetector.samplingDue(timerEntry.getValue(), samples != 0)) {
+                        reportSampling(timerEntry, typeDimValTimerStats, typeDimValTimerPercentile, 0.000001, data); // nanos -> millis
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * {@link #translate(MetricKind, Collection, List)}, counted in the report's totals if kept.
+     */
+    private void translateMeasured(MetricKind kind, Collection<? extends Map.Entry<String, ? extends Metric>> entries,
+                                   List<MetricDatum> data) {
+        ReportCycle cycle = this.reportCycle;
+        if (cycle == null) {
+            translate(kind, entries, data);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        int before = data.size();
+        translate(kind, entries, data);
+        int datums = data.size() - before;
+        cycle.translated(entries.size(), datums, System.nanoTime() - startNanos);
+        ReporterMetrics selfMetrics = this.selfMetrics;
+        if (selfMetrics != null) {
+            selfMetrics.translated(kind, entries.size(), datums);
+        }
+    }
+
+    private void translateInChunks(MetricKind kind, Iterable<? extends Map.Entry<String, ? extends Metric>> metrics,
+                                   List<MetricDatum> chunk, ReportStream stream) throws InterruptedException {
+        for (List<? extends Map.Entry<String, ? extends Metric>> entries :
+                Iterables.partition(metrics, STREAM_CHUNK_METRICS)) {
+            translateMeasured(kind, entries, chunk);
+            stream.accept(chunk);
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Translates shards of each kind of metric on the {@link #translationExecutor}, and streams their datums in the
+     * order that {@link #translate(MetricKind, Collection, List)} would have produced them on this thread. Only a
+     * window of shards is submitted ahead of the one being streamed, so that translated datums do not pile up when
+     * submission to CloudWatch is the bottleneck.
+     */
+    private void translateInParallel(Iterable<? extends Map.Entry<String, ? extends Metric>> gauges,
+                                     Iterable<? extends Map.Entry<String, ? extends Metric>> counters,
+                                     Iterable<? extends Map.Entry<String, ? extends Metric>> histograms,
+                                     Iterable<? extends Map.Entry<String, ? extends Metric>> meters,
+                                     Iterable<? extends Map.Entry<String, ? extends Metric>> timers,
+                                     ReportStream stream) throws InterruptedException {
+        Queue<Callable<List<MetricDatum>>> pending = new ArrayDeque<Callable<List<MetricDatum>>>();
+        addShards(MetricKind.GAUGE, gauges, pending);
+        addShards(MetricKind.COUNTER, counters, pending);
+        addShards(MetricKind.METER, meters, pending);
+        addShards(MetricKind.HISTOGRAM, histograms, pending);
+        addShards(MetricKind.TIMER, timers, pending);
+
+        Queue<Future<List<MetricDatum>>> shards = new ArrayDeque<Future<List<MetricDatum>>>();
+        try {
+            while (!pending.isEmpty() || !shards.isEmpty()) {
+                while (!pending.isEmpty() && shards.size() < TRANSLATION_SHARDS_AHEAD) {
+                    shards.add(translationExecutor.submit(pending.poll()));
+                }
+                stream.accept(shards.poll().get());
+            }
+
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            // Abandon shards not yet started if this report failed. Shards remaining are none if it succeeded.
+            for (Future<List<MetricDatum>> shard : shards) {
+                shard.cancel(false);
+            }
+        }
+    }
+
+    private void addShards(final MetricKind kind, Iterable<? extends Map.Entry<String, ? extends Metric>> metrics,
+                           Queue<Callable<List<MetricDatum>>> shards) {
+        List<Map.Entry<String, ? extends Metric>> entries = Lists.<Map.Entry<String, ? extends Metric>>newArrayList(metrics);
+        for (final List<Map.Entry<String, ? extends Metric>> shard : Lists.partition(entries, translationShardSize)) {
+            shards.add(new Callable<List<MetricDatum>>() {
+                @Override
+                public List<MetricDatum> call() {
+                    List<MetricDatum> data = new ArrayList<MetricDatum>(2 * shard.size());
+                    translateMeasured(kind, shard, data);
+                    return data;
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds the key's datums to the data, noting those of a folded key in the {@link #foldedDatums}.
+     */
+    private void addDatums(List<MetricDatum> data, DemuxedKey key, Iterable<MetricDatum> datums) {
+        int from = data.size();
+        Iterables.addAll(data, datums);
+        if (key.folded) {
+            foldedDatums.addAll(data.subList(from, data.size()));
+        }
+    }
+
+    void reportGauge(Map.Entry<String, Gauge> gaugeEntry, String typeDimValue, List<MetricDatum> data) {
+        Gauge gauge = gaugeEntry.getValue();
+
+        final double value;
+        if (gauge instanceof LongNumberGauge) {
+            value = ((LongNumberGauge) gauge).reportValue();
+        } else if (gauge instanceof DoubleNumberGauge) {
+            value = ((DoubleNumberGauge) gauge).reportValue();
+        } else if (gauge instanceof DoubleGauge) {
+            value = ((DoubleGauge) gauge).getDoubleValue();
+        } else if (gauge instanceof LongGauge) {
+            value = ((LongGauge) gauge).getLongValue();
+        } else {
+            Object valueObj = gauge.getValue();
+            if (valueObj == null) {
+                return;
+            }
+
+            if (valueObj instanceof Number) {
+                value = ((Number) valueObj).doubleValue();
+            } else {
+                // Anything else may still have a numeric representation.
+                String valueStr = valueObj.toString();
+                if (!NumberUtils.isNumber(valueStr)) {
+                    return;
+                }
+                value = NumberUtils.createNumber(valueStr).doubleValue();
+            }
+        }
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // CloudWatch rejects these.
+            return;
+        }
+        if (changeDetector != null && !changeDetector.gaugeDue(gauge, value)) {
+            return;
+        }
+
+        DemuxedKey key = demuxedKey(gaugeEntry);
+        addDatums(data, key, key.newDatums(typeDimName, typeDimValue, new Function<MetricDatum, MetricDatum>() {
+            @Override
+            public MetricDatum apply(MetricDatum datum) {
+                return datum.withValue(value);
+            }
+        }));
+    }
+
+    /**
+     * @return the change in count since the last report
+     */
+    long reportCounter(Map.Entry<String, ? extends Counting> entry, String typeDimValue, List<MetricDatum> data) {
+        Counting metric = entry.getValue();
+        final long diff = diffLast(metric);
+        if (diff == 0) {
+            // Don't submit metrics that have not changed. No reason to keep these alive. Also saves on CloudWatch
+            // costs.
+            return diff;
+        }
+
+        DemuxedKey key = demuxedKey(entry);
+        addDatums(data, key, key.newDatums(typeDimName, typeDimValue, new Function<MetricDatum, MetricDatum>() {
+            @Override
+            public MetricDatum apply(MetricDatum datum) {
+                return datum.withValue((double) diff).withUnit(StandardUnit.Count);
+            }
+        }));
+        return diff;
+    }
+
+    /**
+     * @param rescale the submitted sum by this multiplier. 1.0 is the identity (no rescale).
+     */
+    void reportSampling(Map.Entry<String, ? extends Sampling> entry, String typeDimValue, double rescale, List<MetricDatum> data) {
+        reportSampling(entry, typeDimValue, null, rescale, data);
+    }
+
+    /**
+     * @param percentileTypeDimValue prefix of the type dimension value of percentile datums, or null for none
+     * @param rescale                the submitted sum by this multiplier. 1.0 is the identity (no rescale).
+     */
+    void reportSampling(Map.Entry<String, ? extends Sampling> entry, String typeDimValue, String percentileTypeDimValue,
+                        double rescale, List<MetricDatum> data) {
+        Sampling metric = entry.getValue();
+        // Read once, both since reading may reset the reservoir and since building a snapshot may copy and sort it.
+        Snapshot snapshot = metric.getSnapshot();
+        DemuxedKey key = demuxedKey(entry);
+
+        reportStatistics(key, snapshot, typeDimValue, rescale, data);
+        // A StatisticSetSnapshot has no values to take percentiles of.
+        if (percentileTypeDimValue != null && !(snapshot instanceof StatisticSetSnapshot)) {
+            reportPercentiles(key, snapshot, percentileTypeDimValue, rescale, data);
+        }
+    }
+
+    private void reportStatistics(DemuxedKey key, Snapshot snapshot, String typeDimValue, double rescale,
+                                  List<MetricDatum> data) {
+        if (distributions && !(snapshot instanceof StatisticSetSnapshot)) {
+            final List<Double> values = new ArrayList<Double>();
+            final List<Double> counts = new ArrayList<Double>();
+            if (snapshot instanceof HdrHistogramSnapshot) {
+                // Already bucketed, and may stand for many more samples than getValues() has.
+                HdrHistogramSnapshot hdrHistogramSnapshot = (HdrHistogramSnapshot) snapshot;
+                DistributionBuckets.compress(hdrHistogramSnapshot.values(), hdrHistogramSnapshot.counts(), rescale,
+                        values, counts);
+            } else {
+                DistributionBuckets.compress(snapshot.getValues(), rescale, values, counts);
+            }
+            addDatums(data, key, key.newDatums(typeDimName, typeDimValue, new Function<MetricDatum, MetricDatum>() {
+                @Override
+                public MetricDatum apply(MetricDatum datum) {
+                    return datum.withValues(values).withCounts(counts);
+                }
+            }));
+            return;
+        }
+
+        double scaledSum;
+        double sampleCount;
+        if (snapshot instanceof StatisticSetSnapshot) {
+            // Exact statistics of the interval, no need to read through values.
+            StatisticSetSnapshot statisticSetSnapshot = (StatisticSetSnapshot) snapshot;
+            scaledSum = statisticSetSnapshot.getSum() * rescale;
+            sampleCount = statisticSetSnapshot.getCount();
+        } else if (snapshot instanceof HdrHistogramSnapshot) {
+            // Sum from the recorded buckets, as getValues() has each bucket only once.
+            HdrHistogramSnapshot hdrHistogramSnapshot = (HdrHistogramSnapshot) snapshot;
+            scaledSum = hdrHistogramSnapshot.getSum() * rescale;
+            sampleCount = hdrHistogramSnapshot.getCount();
+        } else {
+            scaledSum = sum(snapshot.getValues()) * rescale;
+            sampleCount = snapshot.size();
+        }
+        final StatisticSet statisticSet = new StatisticSet()
+                .withSum(scaledSum)
+                .withSampleCount(sampleCount)
+                .withMinimum((double) snapshot.getMin() * rescale)
+                .withMaximum((double) snapshot.getMax() * rescale);
+
+        addDatums(data, key, key.newDatums(typeDimName, typeDimValue, new Function<MetricDatum, MetricDatum>() {
+            @Override
+            public MetricDatum apply(MetricDatum datum) {
+                return datum.withStatisticValues(statisticSet);
+            }
+        }));
+    }
+
+
+    private void reportPercentiles(DemuxedKey key, Snapshot snapshot, String percentileTypeDimValue, double rescale,
+                                   List<MetricDatum> data) {
+        if (snapshot.size() == 0) {
+            // Nothing was recorded, so there is no value at any percentile.
+            return;
+        }
+        for (int i = 0; i < percentiles.length; i++) {
+            final double value = snapshot.getValue(percentiles[i]) * rescale;
+            addDatums(data, key, key.newDatums(typeDimName, percentileTypeDimValue + percentileLabels[i],
+                    new Function<MetricDatum, MetricDatum>() {
+                        @Override
+                        public MetricDatum apply(MetricDatum datum) {
+                            return datum.withValue(value);
+                        }
+                    }));
+        }
+    }
+
+    /**
+     * @param quantile in [0..1]
+     * @return the quantile as a percentile without its decimal point, e.g. "50" for 0.5 and "999" for 0.999
+     */
+    static String percentileLabel(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        return BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString().replace(".", "");
+    }
+
+    /**
+     * @param name encoded metric name as registered, without global dimensions
+     * @return the parsed key, including global dimensions
+     */
+    DemuxedKey demuxedKey(String name) {
+        return demuxedKeys.getUnchecked(name);
+    }
+
+    /**
+     * @return the parsed key of the entry, kept by the entry itself if of the {@link #view}
+     */
+    private DemuxedKey demuxedKey(Map.Entry<String, ?> entry) {
+        if (!(entry instanceof ReportedMetric)) {
+            return demuxedKey(entry.getKey());
+        }
+        ReportedMetric<?> metric = (ReportedMetric<?>) entry;
+        DemuxedKey key = metric.key;
+        if (key == null) {
+            String name = guarded(metric.name);
+            key = name == metric.name ? new DemuxedKey(appendGlobalDimensions(name)) : foldedKey(name);
+            metric.key = key;
+        }
+        return key;
+    }
+
+    private long diffLast(Counting metric) {
+        IdentityLongMap<Counting> stripe = lastPolledCounts.of(metric);
+        long count = metric.getCount();
+        long lastCount;
+        synchronized (stripe) {
+            lastCount = stripe.put(metric, count);
+        }
+        return count - lastCount;
+    }
+
+    private void forgetRemovedMetrics() {
+        Metric removed;
+        while ((removed = removedMetrics.poll()) != null) {
+            if (removed instanceof Counting) {
+                IdentityLongMap<Counting> stripe = lastPolledCounts.of(removed);
+                synchronized (stripe) {
+                    stripe.remove((Counting) removed);
+                }
+            }
+            if (changeDetector != null) {
+                changeDetector.forget(removed);
+            }
+        }
+    }
+
+    private long sum(long[] values) {
+        long sum = 0L;
+        for (long value : values) sum += value;
+        return sum;
+    }
+
+
+    /**
+     * @param name folded by the {@link #cardinalityGuard}
+     * @return the parsed key shared by every metric folded into the name
+     */
+    private DemuxedKey foldedKey(String name) {
+        DemuxedKey key = foldedKeys.get(name);
+        if (key == null) {
+            DemuxedKey created = new DemuxedKey(appendGlobalDimensions(name), true);
+            key = foldedKeys.putIfAbsent(name, created);
+            if (key == null) {
+                key = created;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return the name with dimension values beyond the cardinality limit folded, or the very same name
+     */
+    private String guarded(String name) {
+        CardinalityGuard guard = cardinalityGuard;
+        return guard == null ? name : guard.guard(name);
+    }
+
+    private String appendGlobalDimensions(String metric) {
         if (StringUtils.isBlank(StringUtils.trim(dimensions))) {
             return metric;
         } else {
@@ -588,4 +1735,276 @@ public class CloudWatchReporter extends ScheduledReporter {
         }
     }
 
+    private PutMetricDataPipeline newPipeline() {
+        return new PutMetricDataPipeline(cloudWatch, putMetricDataMaxInFlight, putMetricDataTimeoutMillis,
+                new PipelineListener());
+    }
+
+    private ChangeDetector newChangeDetector() {
+        return changeDetection ? new ChangeDetector(changeDetectionHeartbeatMillis, Ticker.systemTicker()) : null;
+    }
+
+    private PutMetricDataRetryQueue newRetryQueue() {
+        return new PutMetricDataRetryQueue(retryQueueMaxDatums, retryMaxAttempts, retryBackoffMillis,
+                Ticker.systemTicker(), spool);
+    }
+
+    private LoadingCache<String, DemuxedKey> newDemuxedKeyCache(int maximumSize) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build(new CacheLoader<String, DemuxedKey>() {
+                    @Override
+                    public DemuxedKey load(String name) {
+                        String guarded = guarded(name);
+                        return guarded == name ? new DemuxedKey(appendGlobalDimensions(name)) : foldedKey(guarded);
+                    }
+                });
+    }
+
+
+    /**
+     * Which translation applies to the metrics of a collection given to
+     * {@link #reportEntries(Iterable, Iterable, Iterable, Iterable, Iterable)}.
+     */
+    enum MetricKind {
+        GAUGE, COUNTER, METER, HISTOGRAM, TIMER
+    }
+
+    /**
+     * @return whether CloudWatch would accept the datum, i.e. it has a value, a non-empty statistic set or a non-empty
+     * distribution
+     */
+    private static boolean isReportable(MetricDatum datum) {
+        if (datum == null) {
+            return false;
+        } else if (datum.getStatisticValues() != null) {
+            // CloudWatch rejects any Statistic Sets with sample count == 0, which it probably should reject.
+            return datum.getStatisticValues().getSampleCount() > 0;
+        } else if (datum.getValue() == null) {
+            // A distribution, which is empty if there were no samples.
+            return !datum.getValues().isEmpty();
+        }
+        return true;
+    }
+
+    /**
+     * Takes a report's datums a chunk at a time, in order, through filtering, timestamping, batching and submission,
+     * so that only the batch being filled is held between chunks. Aggregating duplicates needs every datum of the
+     * report, so when enabled, datums are instead held until {@link #finish()}.
+     */
+    private class ReportStream {
+
+        private final String namespace;
+
+        // Whether to use local "now" (non-null, new Date()) or cloudwatch service "now" (null, leave null).
+        private final Date now = timestampLocal ? new Date() : null;
+        private final List<MetricDatum> toAggregate = aggregateDuplicates ? new ArrayList<MetricDatum>() : null;
+        private final CardinalityGuard guard = cardinalityGuard;
+        private final List<MetricDatum> toFold = guard != null ? new ArrayList<MetricDatum>() : null;
+        private final Integer storageResolution = tierStorageResolution;
+        private final PutMetricDataBatcher.Packer packer;
+        // Whether requests count in the self metrics, i.e. are not sending the self metrics themselves.
+        private final boolean measured = reportCycle != null;
+        private int submitted = 0;
+        private int requests = 0;
+
+        ReportStream(String namespace) {
+            this.namespace = namespace;
+            this.packer = batcher.packer(namespace);
+        }
+
+        void accept(List<MetricDatum> chunk) throws InterruptedException {
+            for (MetricDatum datum : chunk) {
+                // Filter out unreportable entries.
+                if (!isReportable(datum)) {
+                    continue;
+                }
+                if (now != null) {
+                    datum.withTimestamp(now);
+                }
+                if (storageResolution != null) {
+                    datum.withStorageResolution(storageResolution);
+                }
+                // Finally, apply any user-level filter.
+                if (!reporterFilter.apply(datum)) {
+                    continue;
+                }
+                if (toFold != null && foldedDatums.remove(datum)) {
+                    toFold.add(datum);
+                } else {
+                    add(datum);
+                }
+            }
+        }
+
+        /**
+         * @return number of datums submitted
+         */
+        int finish() throws InterruptedException {
+            if (toFold != null && !toFold.isEmpty()) {
+                // Merge the datums of every metric folded into the same name.
+                List<MetricDatum> folded = MetricDatumAggregator.aggregate(toFold);
+                guard.foldedDatums(toFold.size() - folded.size());
+                for (MetricDatum datum : folded) {
+                    add(datum);
+                }
+            }
+            if (toAggregate != null) {
+                // Merge datums of the same metric identity, which permutation and global dimensions often produce.
+                for (MetricDatum datum : MetricDatumAggregator.aggregate(toAggregate)) {
+                    submit(packer.add(datum));
+                }
+            }
+            submit(packer.finish());
+            return submitted;
+        }
+
+        private void add(MetricDatum datum) throws InterruptedException {
+            if (toAggregate != null) {
+                toAggregate.add(datum);
+            } else {
+                submit(packer.add(datum));
+            }
+        }
+
+        private void submit(List<MetricDatum> batch) throws InterruptedException {
+            if (batch == null) {
+                return;
+            }
+            // Submit asynchronously. Outcomes are handled by the PipelineListener as they complete.
+            pipeline.submit(new PutMetricDataRequest()
+                    .withNamespace(namespace)
+                    .withMetricData(batch));
+            submitted += batch.size();
+            requests++;
+            if (measured && selfMetrics != null) {
+                selfMetrics.submitted();
+            }
+        }
+    }
+
+    /**
+     * Matches the metrics of the view in one tier.
+     */
+    private class InTier implements Predicate<ReportedMetric<?>> {
+
+        private final int tier;
+
+        InTier(int tier) {
+            this.tier = tier;
+        }
+
+        @Override
+        public boolean apply(ReportedMetric<?> metric) {
+            return tierOf(metric) == tier;
+        }
+    }
+
+    /**
+     * Handles the outcome of each PutMetricData request.
+     */
+    private class PipelineListener implements PutMetricDataPipeline.Listener {
+
+        @Override
+        public void onSuccess(PutMetricDataRequest request, long latencyNanos) {
+            if (selfMetrics != null) {
+                selfMetrics.completed(latencyNanos, false);
+            }
+            if (ReporterEvents.isPutMetricDataEnabled()) {
+                ReporterEvents.commitPutMetricData(request.getNamespace(), request.getMetricData().size(),
+                        PutMetricDataBatcher.estimateRequestBytes(request), latencyNanos, null);
+            }
+            cloudWatchAccepting = true;
+            retryQueue.onSuccess(request);
+            LOG.trace("Sent {} metric data to CloudWatch in {}ms. namespace: {}",
+                    request.getMetricData().size(), TimeUnit.NANOSECONDS.toMillis(latencyNanos), metricNamespace);
+        }
+
+        @Override
+        public void onFailure(PutMetricDataRequest request, Exception exception, long latencyNanos) {
+            if (selfMetrics != null) {
+                selfMetrics.completed(latencyNanos, true);
+            }
+            if (ReporterEvents.isPutMetricDataEnabled()) {
+                ReporterEvents.commitPutMetricData(request.getNamespace(), request.getMetricData().size(),
+                        PutMetricDataBatcher.estimateRequestBytes(request), latencyNanos, exception);
+            }
+            if (PutMetricDataRetryQueue.isRetryable(exception)) {
+                cloudWatchAccepting = false;
+            }
+            if (retryQueue.offer(request, exception, latencyNanos)) {
+                LOG.warn("Exception reporting metrics to CloudWatch. The data in this CloudWatch API request " +
+                        "will be retried on a later report. {}", exception.toString());
+            } else {
+                LOG.error("Exception reporting metrics to CloudWatch. The data in this CloudWatch API request " +
+                        "has been discarded, did not make it to CloudWatch.", exception);
+            }
+        }
+    }
+
+    /**
+     * Keeps the view and per-metric reporter state in step with the registry.
+     */
+    private class RegistryListener extends MetricRegistryListener.Base {
+
+        @Override
+        public void onGaugeAdded(String name, Gauge<?> gauge) {
+            view.addGauge(name, gauge);
+        }
+
+        @Override
+        public void onGaugeRemoved(String name) {
+            onMetricRemoved(name);
+        }
+
+        @Override
+        public void onCounterAdded(String name, Counter counter) {
+            view.addCounter(name, counter);
+        }
+
+        @Override
+        public void onCounterRemoved(String name) {
+            onMetricRemoved(name);
+        }
+
+        @Override
+        public void onHistogramAdded(String name, Histogram histogram) {
+            view.addHistogram(name, histogram);
+        }
+
+        @Override
+        public void onHistogramRemoved(String name) {
+            onMetricRemoved(name);
+        }
+
+        @Override
+        public void onMeterAdded(String name, Meter meter) {
+            view.addMeter(name, meter);
+        }
+
+        @Override
+        public void onMeterRemoved(String name) {
+            onMetricRemoved(name);
+        }
+
+        @Override
+        public void onTimerAdded(String name, Timer timer) {
+            view.addTimer(name, timer);
+        }
+
+        @Override
+        public void onTimerRemoved(String name) {
+            onMetricRemoved(name);
+        }
+
+        private void onMetricRemoved(String name) {
+            demuxedKeys.invalidate(name);
+            // The view has the metric itself, which the registry only names.
+            Metric removed = view.remove(name);
+            if (removed != null) {
+                removedMetrics.add(removed);
+            }
+        }
+    }
+
 }
@@ -32,7 +32,9 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
 
+import java.io.File;
 import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
 
 
 /**
@@ -60,9 +62,36 @@ public class CloudWatchReporterBuilder {
     private String typeDimValHistoStats;
     private String typeDimValTimerSamples;
     private String typeDimValTimerStats;
+    private String typeDimValHistoPercentile;
+    private String typeDimValTimerPercentile;
 
     private Predicate<MetricDatum> reporterFilter;
 
+    private Integer demuxedKeyCacheSize;
+    private Boolean distributions;
+    private double[] percentiles;
+    private Boolean aggregateDuplicates;
+    private Integer dimensionCardinalityLimit;
+    private ExecutorService translationExecutor;
+    private Integer translationShardSize;
+    private Boolean changeDetection;
+    private Long changeDetectionHeartbeatMillis;
+    private ReportTier[] tiers;
+    private MetricFamily<?>[] families;
+    private MetricRegistry selfMetricsRegistry;
+    private String selfMetricsNamespace;
+    private Integer putMetricDataMaxDatums;
+    private Integer putMetricDataMaxBytes;
+    private Integer putMetricDataMaxInFlight;
+    private Long putMetricDataTimeoutMillis;
+    private Integer retryQueueMaxDatums;
+    private Integer retryMaxAttempts;
+    private Long retryBackoffMillis;
+    private File spoolDirectory;
+    private Integer spoolSegmentBytes;
+    private Long spoolMaxBytes;
+    private SpoolSyncPolicy spoolSyncPolicy;
+
     /**
      * @param registry of metrics for CloudWatchReporter to submit
      * @return this (for chaining)
@@ -207,6 +236,28 @@ public class CloudWatchReporterBuilder {
         return this;
     }
 
+    /**
+     * @param typeDimValHistoPercentile prefix of the value of the "metric type" dimension added to CloudWatch
+     *                                  submissions of {@link Histogram} percentiles, followed by the percentile.
+     *                                  Defaults to <b>{@value Constants#DEF_DIM_VAL_HISTO_PERCENTILE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withTypeDimValHistoPercentile(String typeDimValHistoPercentile) {
+        this.typeDimValHistoPercentile = typeDimValHistoPercentile;
+        return this;
+    }
+
+    /**
+     * @param typeDimValTimerPercentile prefix of the value of the "metric type" dimension added to CloudWatch
+     *                                  submissions of {@link Timer} percentiles, followed by the percentile.
+     *                                  Defaults to <b>{@value Constants#DEF_DIM_VAL_TIMER_PERCENTILE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withTypeDimValTimerPercentile(String typeDimValTimerPercentile) {
+        this.typeDimValTimerPercentile = typeDimValTimerPercentile;
+        return this;
+    }
+
     /**
      * This filter is applied right before submission to CloudWatch. This filter can access decoded metric name elements
      * such as {@link MetricDatum#getDimensions()}. true means to keep and submit the metric. false means to exclude it.
@@ -228,6 +279,272 @@ public class CloudWatchReporterBuilder {
     }
 
 
+    /**
+     * @param demuxedKeyCacheSize maximum number of parsed metric names the reporter retains between reports. Should be
+     *                            at least the number of reported metrics, or names will be re-parsed every report.
+     *                            Defaults to <b>{@value Constants#DEF_DEMUXED_KEY_CACHE_SIZE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withDemuxedKeyCacheSize(Integer demuxedKeyCacheSize) {
+        this.demuxedKeyCacheSize = demuxedKeyCacheSize;
+        return this;
+    }
+
+    /**
+     * @param distributions whether to send histogram and timer snapshots as CloudWatch Values/Counts distributions
+     *                      rather than StatisticSets, so that CloudWatch can compute percentiles. Samples are compressed
+     *                      into at most 150 log-linear buckets, keeping sample count and sum exact. Snapshots of
+     *                      {@link StatisticSetReservoir}s have no samples and are still sent as StatisticSets.
+     *                      Defaults to <b>false</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withDistributions(Boolean distributions) {
+        this.distributions = distributions;
+        return this;
+    }
+
+    /**
+     * @param percentiles quantiles of histogram and timer snapshots to send as datums of their own, each in [0..1],
+     *                    e.g. 0.5, 0.99 and 0.999, sent as "timerP50", "timerP99" and "timerP999". Snapshots
+     *                    of {@link StatisticSetReservoir}s keep no values and are not sent percentiles.
+     *                    Defaults to <b>none</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withPercentiles(double... percentiles) {
+        this.percentiles = null != percentiles ? percentiles.clone() : null;
+        return this;
+    }
+
+    /**
+     * @param aggregateDuplicates whether to merge datums with the same name, dimensions, unit and timestamp within a
+     *                            report before sending, e.g. the copies of many counters all permuted down to the same
+     *                            aggregate. Merged datums are sent as one StatisticSet with the same sample count, sum,
+     *                            minimum and maximum, so CloudWatch statistics are unchanged. Defaults to <b>false</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withAggregateDuplicates(Boolean aggregateDuplicates) {
+        this.aggregateDuplicates = aggregateDuplicates;
+        return this;
+    }
+
+    /**
+     * @param dimensionCardinalityLimit distinct values of each dimension of each metric name to report as they are.
+     *                                  Metrics with any further value are reported with that dimension's value
+     *                                  replaced by <b>{@value Constants#DIMENSION_OVERFLOW_VALUE}</b> and their datums
+     *                                  merged. Defaults to
+     *                                  <b>{@value Constants#DEF_DIMENSION_CARDINALITY_LIMIT}</b>, unlimited
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withDimensionCardinalityLimit(Integer dimensionCardinalityLimit) {
+        this.dimensionCardinalityLimit = dimensionCardinalityLimit;
+        return this;
+    }
+
+    /**
+     * @param changeDetection whether to skip gauges whose value has not changed since it was last sent, and histograms
+     *                        and timers which recorded nothing since they were last sent, except once every
+     *                        {@link #withChangeDetectionHeartbeatMillis(Long)}. Defaults to <b>false</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withChangeDetection(Boolean changeDetection) {
+        this.changeDetection = changeDetection;
+        return this;
+    }
+
+    /**
+     * @param changeDetectionHeartbeatMillis after which a metric skipped by change detection is sent anyway. 0 or less
+     *                                       never sends it until it changes. Defaults to
+     *                                       <b>{@value Constants#DEF_CHANGE_DETECTION_HEARTBEAT_MILLIS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withChangeDetectionHeartbeatMillis(Long changeDetectionHeartbeatMillis) {
+        this.changeDetectionHeartbeatMillis = changeDetectionHeartbeatMillis;
+        return this;
+    }
+
+    /**
+     * @param tiers of metrics to report at their own periods rather than the period the reporter is started with. Each
+     *              metric belongs to the first tier that matches it. Tiers shorter than a minute are sent as CloudWatch
+     *              high resolution metrics. Defaults to <b>none</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withTiers(ReportTier... tiers) {
+        this.tiers = null != tiers ? tiers.clone() : null;
+        return this;
+    }
+
+    /**
+     * @param families whose children to report along with the registry's metrics, not subject to the
+     *                 {@link #withFilter(MetricFilter)}. A family should be reported by only one reporter.
+     *                 Defaults to <b>none</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withFamilies(MetricFamily<?>... families) {
+        this.families = null != families ? families.clone() : null;
+        return this;
+    }
+
+    /**
+     * @param selfMetricsRegistry to register the reporter's measurements of itself in, e.g. the registry it reports.
+     *                            Defaults to <b>null</b>, none
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withSelfMetricsRegistry(MetricRegistry selfMetricsRegistry) {
+        this.selfMetricsRegistry = selfMetricsRegistry;
+        return this;
+    }
+
+    /**
+     * @param selfMetricsNamespace CloudWatch namespace to send the reporter's measurements of itself to after each
+     *                             report. Use either this or a self metrics registry that is reported, not both.
+     *                             Defaults to <b>null</b>, not sent
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withSelfMetricsNamespace(String selfMetricsNamespace) {
+        this.selfMetricsNamespace = selfMetricsNamespace;
+        return this;
+    }
+
+    /**
+     * @param translationExecutor to translate metrics to datums in parallel on, in shards of
+     *                            {@link #withTranslationShardSize(Integer)} metrics of one type each, or null to
+     *                            translate on the reporting thread. Worth it for registries of tens of thousands of
+     *                            metrics. Datums come out in the same order either way. The executor is not shut down by
+     *                            the reporter. Defaults to <b>null</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withTranslationExecutor(ExecutorService translationExecutor) {
+        this.translationExecutor = translationExecutor;
+        return this;
+    }
+
+    /**
+     * @param translationShardSize maximum number of metrics of one type in each shard given to the
+     *                             {@link #withTranslationExecutor(ExecutorService)}.
+     *                             Defaults to <b>{@value Constants#DEF_TRANSLATION_SHARD_SIZE}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withTranslationShardSize(Integer translationShardSize) {
+        this.translationShardSize = translationShardSize;
+        return this;
+    }
+
+    /**
+     * @param putMetricDataMaxDatums maximum number of datums per PutMetricData request. CloudWatch accepts up to 1000.
+     *                               Use {@link Constants#LEGACY_PUT_METRIC_DATA_MAX_DATUMS} to keep the old batches
+     *                               of 20. Defaults to <b>{@value Constants#DEF_PUT_METRIC_DATA_MAX_DATUMS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withPutMetricDataMaxDatums(Integer putMetricDataMaxDatums) {
+        this.putMetricDataMaxDatums = putMetricDataMaxDatums;
+        return this;
+    }
+
+    /**
+     * @param putMetricDataMaxBytes maximum estimated size of a PutMetricData request, as form-encoded by the SDK.
+     *                              Defaults to <b>{@value Constants#DEF_PUT_METRIC_DATA_MAX_BYTES}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withPutMetricDataMaxBytes(Integer putMetricDataMaxBytes) {
+        this.putMetricDataMaxBytes = putMetricDataMaxBytes;
+        return this;
+    }
+
+    /**
+     * @param putMetricDataMaxInFlight maximum number of PutMetricData requests outstanding at once. Reporting only
+     *                                 waits on CloudWatch while this many are outstanding.
+     *                                 Defaults to <b>{@value Constants#DEF_PUT_METRIC_DATA_MAX_IN_FLIGHT}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withPutMetricDataMaxInFlight(Integer putMetricDataMaxInFlight) {
+        this.putMetricDataMaxInFlight = putMetricDataMaxInFlight;
+        return this;
+    }
+
+    /**
+     * @param putMetricDataTimeoutMillis milliseconds after which an outstanding PutMetricData request is cancelled.
+     *                                   Defaults to <b>{@value Constants#DEF_PUT_METRIC_DATA_TIMEOUT_MILLIS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withPutMetricDataTimeoutMillis(Long putMetricDataTimeoutMillis) {
+        this.putMetricDataTimeoutMillis = putMetricDataTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @param retryQueueMaxDatums maximum number of datums from failed requests held to be re-sent on later reports.
+     *                            The oldest are dropped to make room. 0 disables retries.
+     *                            Defaults to <b>{@value Constants#DEF_RETRY_QUEUE_MAX_DATUMS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withRetryQueueMaxDatums(Integer retryQueueMaxDatums) {
+        this.retryQueueMaxDatums = retryQueueMaxDatums;
+        return this;
+    }
+
+    /**
+     * @param retryMaxAttempts maximum number of times a request is sent, including the first.
+     *                         Defaults to <b>{@value Constants#DEF_RETRY_MAX_ATTEMPTS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withRetryMaxAttempts(Integer retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+        return this;
+    }
+
+    /**
+     * @param retryBackoffMillis milliseconds before a failed request is first retried, doubling with each further
+     *                           failure and randomly jittered. Retries are sent on the first report after this elapses.
+     *                           Defaults to <b>{@value Constants#DEF_RETRY_BACKOFF_MILLIS}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withRetryBackoffMillis(Long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+        return this;
+    }
+
+    /**
+     * @param spoolDirectory if set, requests that cannot be retried from memory, and any still waiting to be retried
+     *                       when the reporter stops, are spooled to memory-mapped segment files in this directory
+     *                       and replayed once CloudWatch accepts requests again. Only one reporter may use a given
+     *                       directory at a time. Defaults to <b>null</b>, no spool.
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withSpoolDirectory(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+        return this;
+    }
+
+    /**
+     * @param spoolSegmentBytes size of each spool segment file.
+     *                          Defaults to <b>{@value Constants#DEF_SPOOL_SEGMENT_BYTES}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withSpoolSegmentBytes(Integer spoolSegmentBytes) {
+        this.spoolSegmentBytes = spoolSegmentBytes;
+        return this;
+    }
+
+    /**
+     * @param spoolMaxBytes total size of the spool, beyond which its oldest segment is deleted.
+     *                      Defaults to <b>{@value Constants#DEF_SPOOL_MAX_BYTES}</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withSpoolMaxBytes(Long spoolMaxBytes) {
+        this.spoolMaxBytes = spoolMaxBytes;
+        return this;
+    }
+
+    /**
+     * @param spoolSyncPolicy when to force spooled data to disk. Defaults to <b>SEGMENT</b>
+     * @return this (for chaining)
+     */
+    public CloudWatchReporterBuilder withSpoolSyncPolicy(SpoolSyncPolicy spoolSyncPolicy) {
+        this.spoolSyncPolicy = spoolSyncPolicy;
+        return this;
+    }
+
+
     /**
      * @return a shallow copy of this builder
      */
@@ -247,7 +564,33 @@ public class CloudWatchReporterBuilder {
                 .withTypeDimValHistoStats(typeDimValHistoStats)
                 .withTypeDimValTimerSamples(typeDimValTimerSamples)
                 .withTypeDimValTimerStats(typeDimValTimerStats)
-                .withReporterFilter(reporterFilter);
+                .withTypeDimValHistoPercentile(typeDimValHistoPercentile)
+                .withTypeDimValTimerPercentile(typeDimValTimerPercentile)
+                .withReporterFilter(reporterFilter)
+                .withDemuxedKeyCacheSize(demuxedKeyCacheSize)
+                .withDistributions(distributions)
+                .withPercentiles(percentiles)
+                .withAggregateDuplicates(aggregateDuplicates)
+                .withDimensionCardinalityLimit(dimensionCardinalityLimit)
+                .withTranslationExecutor(translationExecutor)
+                .withTranslationShardSize(translationShardSize)
+                .withChangeDetection(changeDetection)
+                .withChangeDetectionHeartbeatMillis(changeDetectionHeartbeatMillis)
+                .withTiers(tiers)
+                .withFamilies(families)
+                .withSelfMetricsRegistry(selfMetricsRegistry)
+                .withSelfMetricsNamespace(selfMetricsNamespace)
+                .withPutMetricDataMaxDatums(putMetricDataMaxDatums)
+                .withPutMetricDataMaxBytes(putMetricDataMaxBytes)
+                .withPutMetricDataMaxInFlight(putMetricDataMaxInFlight)
+                .withPutMetricDataTimeoutMillis(putMetricDataTimeoutMillis)
+                .withRetryQueueMaxDatums(retryQueueMaxDatums)
+                .withRetryMaxAttempts(retryMaxAttempts)
+                .withRetryBackoffMillis(retryBackoffMillis)
+                .withSpoolDirectory(spoolDirectory)
+                .withSpoolSegmentBytes(spoolSegmentBytes)
+                .withSpoolMaxBytes(spoolMaxBytes)
+                .withSpoolSyncPolicy(spoolSyncPolicy);
     }
 
     /**
@@ -275,10 +618,35 @@ public class CloudWatchReporterBuilder {
         String resolvedTypeDimValHistoStats = null != typeDimValHistoStats ? typeDimValHistoStats : Constants.DEF_DIM_VAL_HISTO_STATS;
         String resolvedTypeDimValTimerSamples = null != typeDimValTimerSamples ? typeDimValTimerSamples : Constants.DEF_DIM_VAL_TIMER_SAMPLES;
         String resolvedTypeDimValTimerStats = null != typeDimValTimerStats ? typeDimValTimerStats : Constants.DEF_DIM_VAL_TIMER_STATS;
+        String resolvedTypeDimValHistoPercentile = null != typeDimValHistoPercentile ? typeDimValHistoPercentile : Constants.DEF_DIM_VAL_HISTO_PERCENTILE;
+        String resolvedTypeDimValTimerPercentile = null != typeDimValTimerPercentile ? typeDimValTimerPercentile : Constants.DEF_DIM_VAL_TIMER_PERCENTILE;
 
         Predicate<MetricDatum> resolvedReporterFilter = null != reporterFilter ? reporterFilter : Predicates.<MetricDatum>alwaysTrue();
-
-        return new CloudWatchReporter(
+        Integer resolvedDemuxedKeyCacheSize = null != demuxedKeyCacheSize ? demuxedKeyCacheSize : Constants.DEF_DEMUXED_KEY_CACHE_SIZE;
+        Boolean resolvedDistributions = null != distributions ? distributions : false;
+        double[] resolvedPercentiles = null != percentiles ? percentiles : new double[0];
+        Boolean resolvedAggregateDuplicates = null != aggregateDuplicates ? aggregateDuplicates : false;
+        Integer resolvedDimensionCardinalityLimit = null != dimensionCardinalityLimit ? dimensionCardinalityLimit : Constants.DEF_DIMENSION_CARDINALITY_LIMIT;
+        ExecutorService resolvedTranslationExecutor = null != translationExecutor ? translationExecutor : null;
+        Integer resolvedTranslationShardSize = null != translationShardSize ? translationShardSize : Constants.DEF_TRANSLATION_SHARD_SIZE;
+        Boolean resolvedChangeDetection = null != changeDetection ? changeDetection : false;
+        Long resolvedChangeDetectionHeartbeatMillis = null != changeDetectionHeartbeatMillis ? changeDetectionHeartbeatMillis : Constants.DEF_CHANGE_DETECTION_HEARTBEAT_MILLIS;
+        ReportTier[] resolvedTiers = null != tiers ? tiers : new ReportTier[0];
+        MetricFamily<?>[] resolvedFamilies = null != families ? families : new MetricFamily<?>[0];
+        MetricRegistry resolvedSelfMetricsRegistry = null != selfMetricsRegistry ? selfMetricsRegistry : null;
+        String resolvedSelfMetricsNamespace = null != selfMetricsNamespace ? selfMetricsNamespace : null;
+        Integer resolvedPutMetricDataMaxDatums = null != putMetricDataMaxDatums ? putMetricDataMaxDatums : Constants.DEF_PUT_METRIC_DATA_MAX_DATUMS;
+        Integer resolvedPutMetricDataMaxBytes = null != putMetricDataMaxBytes ? putMetricDataMaxBytes : Constants.DEF_PUT_METRIC_DATA_MAX_BYTES;
+        Integer resolvedPutMetricDataMaxInFlight = null != putMetricDataMaxInFlight ? putMetricDataMaxInFlight : Constants.DEF_PUT_METRIC_DATA_MAX_IN_FLIGHT;
+        Long resolvedPutMetricDataTimeoutMillis = null != putMetricDataTimeoutMillis ? putMetricDataTimeoutMillis : Constants.DEF_PUT_METRIC_DATA_TIMEOUT_MILLIS;
+        Integer resolvedRetryQueueMaxDatums = null != retryQueueMaxDatums ? retryQueueMaxDatums : Constants.DEF_RETRY_QUEUE_MAX_DATUMS;
+        Integer resolvedRetryMaxAttempts = null != retryMaxAttempts ? retryMaxAttempts : Constants.DEF_RETRY_MAX_ATTEMPTS;
+        Long resolvedRetryBackoffMillis = null != retryBackoffMillis ? retryBackoffMillis : Constants.DEF_RETRY_BACKOFF_MILLIS;
+        Integer resolvedSpoolSegmentBytes = null != spoolSegmentBytes ? spoolSegmentBytes : Constants.DEF_SPOOL_SEGMENT_BYTES;
+        Long resolvedSpoolMaxBytes = null != spoolMaxBytes ? spoolMaxBytes : Constants.DEF_SPOOL_MAX_BYTES;
+        SpoolSyncPolicy resolvedSpoolSyncPolicy = null != spoolSyncPolicy ? spoolSyncPolicy : SpoolSyncPolicy.SEGMENT;
+
+        CloudWatchReporter reporter = new CloudWatchReporter(
                 resolvedRegistry,
                 resolvedNamespace,
                 resolvedFilter,
@@ -293,6 +661,35 @@ public class CloudWatchReporterBuilder {
                 .withTypeDimValHistoStats(resolvedTypeDimValHistoStats)
                 .withTypeDimValTimerSamples(resolvedTypeDimValTimerSamples)
                 .withTypeDimValTimerStats(resolvedTypeDimValTimerStats)
-                .withReporterFilter(resolvedReporterFilter);
+                .withTypeDimValHistoPercentile(resolvedTypeDimValHistoPercentile)
+                .withTypeDimValTimerPercentile(resolvedTypeDimValTimerPercentile)
+                .withReporterFilter(resolvedReporterFilter)
+                .withDemuxedKeyCacheSize(resolvedDemuxedKeyCacheSize)
+                .withDistributions(resolvedDistributions)
+                .withPercentiles(resolvedPercentiles)
+                .withAggregateDuplicates(resolvedAggregateDuplicates)
+                .withDimensionCardinalityLimit(resolvedDimensionCardinalityLimit)
+                .withTranslationExecutor(resolvedTranslationExecutor)
+                .withTranslationShardSize(resolvedTranslationShardSize)
+                .withChangeDetectionHeartbeatMillis(resolvedChangeDetectionHeartbeatMillis)
+                .withChangeDetection(resolvedChangeDetection)
+                .withTiers(resolvedTiers)
+                .withSelfMetricsRegistry(resolvedSelfMetricsRegistry)
+                .withSelfMetricsNamespace(resolvedSelfMetricsNamespace)
+                .withPutMetricDataMaxDatums(resolvedPutMetricDataMaxDatums)
+                .withPutMetricDataMaxBytes(resolvedPutMetricDataMaxBytes)
+                .withPutMetricDataMaxInFlight(resolvedPutMetricDataMaxInFlight)
+                .withPutMetricDataTimeoutMillis(resolvedPutMetricDataTimeoutMillis)
+                .withRetryQueueMaxDatums(resolvedRetryQueueMaxDatums)
+                .withRetryMaxAttempts(resolvedRetryMaxAttempts)
+                .withRetryBackoffMillis(resolvedRetryBackoffMillis);
+
+        for (MetricFamily<?> family : resolvedFamilies) {
+            reporter.addFamily(family);
+        }
+        if (null != spoolDirectory) {
+            reporter.withSpool(spoolDirectory, resolvedSpoolSegmentBytes, resolvedSpoolMaxBytes, resolvedSpoolSyncPolicy);
+        }
+        return reporter;
     }
 }
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * A {@link MetricFamily} of {@link Timer}s, by default the same as
+ * {@link com.codahale.metrics.MetricRegistry#timer(String)}. Override {@link #newMetric()} for another, e.g. a
+ * {@link StatisticSetTimer} or {@link HdrHistogramTimer}.
+ * <pre>
+ *     CloudWatchTimerFamily latency = new CloudWatchTimerFamily("Latency", "endpoint") {
+ *         protected Timer newMetric() {
+ *             return new StatisticSetTimer();
+ *         }
+ *     };
+ *     latency.get("/foo").update(elapsedNanos, TimeUnit.NANOSECONDS);
+ * </pre>
+ */
+public class CloudWatchTimerFamily extends MetricFamily<Timer> {
+
+    /**
+     * @param name       encoded name of every child
+     * @param labelNames names of the dimensions whose values distinguish children
+     */
+    public CloudWatchTimerFamily(String name, String... labelNames) {
+        super(name, Timer.class, labelNames);
+    }
+
+    @Override
+    protected Timer newMetric() {
+        return new Timer();
+    }
+}
@@ -99,4 +99,98 @@ public class Constants {
      */
     public static final String DEF_DIM_VAL_TIMER_STATS = "timerStats";
 
+    /**
+     * Prefix of the {@link Dimension#value} of percentiles of {@link Histogram#getSnapshot()}, which is followed by
+     * the percentile, e.g. "histoP99".
+     */
+    public static final String DEF_DIM_VAL_HISTO_PERCENTILE = "histoP";
+
+    /**
+     * Prefix of the {@link Dimension#value} of percentiles of {@link Timer#getSnapshot()}, which is followed by the
+     * percentile, e.g. "timerP99".
+     */
+    public static final String DEF_DIM_VAL_TIMER_PERCENTILE = "timerP";
+
+    /**
+     * {@link Dimension#value} that a {@link CloudWatchReporter} with a dimension cardinality limit reports in place of
+     * every value beyond the limit.
+     */
+    public static final String DIMENSION_OVERFLOW_VALUE = "__other__";
+
+    /**
+     * Default distinct values of each dimension of each metric name that a {@link CloudWatchReporter} reports as
+     * they are, 0 for unlimited.
+     */
+    public static final int DEF_DIMENSION_CARDINALITY_LIMIT = 0;
+
+    /**
+     * Default maximum number of parsed metric names kept by a {@link CloudWatchReporter}. Names beyond this are
+     * evicted and simply re-parsed the next time they are reported.
+     */
+    public static final int DEF_DEMUXED_KEY_CACHE_SIZE = 100000;
+
+    /**
+     * Default maximum number of metrics of one type translated to datums together, when a {@link CloudWatchReporter}
+     * translates in parallel.
+     */
+    public static final int DEF_TRANSLATION_SHARD_SIZE = 1000;
+
+    /**
+     * Default milliseconds after which a {@link CloudWatchReporter} with change detection sends an unchanged metric
+     * anyway, 5 minutes.
+     */
+    public static final long DEF_CHANGE_DETECTION_HEARTBEAT_MILLIS = 300000L;
+
+    /**
+     * Default maximum number of PutMetricData requests a {@link CloudWatchReporter} has outstanding at once.
+     */
+    public static final int DEF_PUT_METRIC_DATA_MAX_IN_FLIGHT = 10;
+
+    /**
+     * Default maximum number of datums per PutMetricData request.
+     */
+    public static final int DEF_PUT_METRIC_DATA_MAX_DATUMS = 1000;
+
+    /**
+     * The number of datums per PutMetricData request that CloudWatch used to be limited to, and that
+     * {@link CloudWatchReporter} still defaults to when constructed directly rather than through the
+     * {@link CloudWatchReporterBuilder}. Set this as the max datums to retain the old batching.
+     */
+    public static final int LEGACY_PUT_METRIC_DATA_MAX_DATUMS = 20;
+
+    /**
+     * Default maximum estimated size of a PutMetricData request. CloudWatch limits requests to 1 MB.
+     */
+    public static final int DEF_PUT_METRIC_DATA_MAX_BYTES = 1000000;
+
+    /**
+     * Default milliseconds after which an outstanding PutMetricData request is cancelled.
+     */
+    public static final long DEF_PUT_METRIC_DATA_TIMEOUT_MILLIS = 30000L;
+
+    /**
+     * Default maximum number of datums from failed PutMetricData requests held for retry.
+     */
+    public static final int DEF_RETRY_QUEUE_MAX_DATUMS = 10000;
+
+    /**
+     * Default maximum number of times a PutMetricData request is sent, including the first.
+     */
+    public static final int DEF_RETRY_MAX_ATTEMPTS = 5;
+
+    /**
+     * Default milliseconds before a failed PutMetricData request is first retried. Doubles with each further failure.
+     */
+    public static final long DEF_RETRY_BACKOFF_MILLIS = 15000L;
+
+    /**
+     * Default size of each memory-mapped segment file of a reporter's disk spool, 4 MiB.
+     */
+    public static final int DEF_SPOOL_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Default total size of a reporter's disk spool, 256 MiB.
+     */
+    public static final long DEF_SPOOL_MAX_BYTES = 256L * 1024 * 1024;
+
 }
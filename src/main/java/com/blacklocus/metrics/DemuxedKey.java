@@ -20,10 +20,10 @@ import com.amazonaws.services.cloudwatch.model.MetricDatum;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -38,7 +38,35 @@ class DemuxedKey {
     final PermutableChain<String> nameChain;
     final PermutableChain<Dimension> dimensionChain;
 
+    /**
+     * Every submittable metric name permutation of the {@link #nameChain}, joined and ready for use.
+     */
+    final String[] names;
+
+    /**
+     * Every permutation of the {@link #dimensionChain}. These do not include the metric type dimension, which is
+     * prepended per metric type by {@link #typedDimensionSets(String, String)}.
+     */
+    final Dimension[][] dimensionSets;
+
+    /**
+     * {@link #dimensionSets} with each metric type dimension requested so far prepended. A metric is reported under
+     * only a few types, so this stays tiny. Racing writers may drop each other's entries, which are just rebuilt.
+     */
+    private volatile TypedDimensionSets[] typedDimensionSets = new TypedDimensionSets[0];
+
+    /**
+     * Whether a {@link CardinalityGuard} replaced a dimension value of the name, in which case its datums are merged
+     * with the others of the same folded name.
+     */
+    final boolean folded;
+
     DemuxedKey(String s) {
+        this(s, false);
+    }
+
+    DemuxedKey(String s, boolean folded) {
+        this.folded = folded;
         String[] segments = s.split(NAME_TOKEN_DELIMITER_RGX);
 
         PermutableChain<String> names = null;
@@ -66,6 +94,10 @@ class DemuxedKey {
 
         this.nameChain = names;
         this.dimensionChain = dimensions;
+
+        // Expand all permutations once, so that reporting only has to stamp values onto them.
+        this.names = expandNames(names);
+        this.dimensionSets = expandDimensions(dimensions);
     }
 
     /**
@@ -75,16 +107,47 @@ class DemuxedKey {
      * @return the generated <i>datums</i> which should be ready for submission to CloudWath
      */
     Iterable<MetricDatum> newDatums(String typeName, String typeValue, Function<MetricDatum, MetricDatum> datumSpecification) {
-
         // All dimension sets include the type dimension.
-        PermutableChain<Dimension> withDimensionChain = new PermutableChain<Dimension>(
-                new Dimension().withName(typeName).withValue(typeValue),
-                false,
-                dimensionChain
-        );
+        Dimension[][] typedSets = typedDimensionSets(typeName, typeValue);
 
-        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        List<MetricDatum> data = new ArrayList<MetricDatum>(names.length * typedSets.length);
+        for (String name : names) {
+            for (Dimension[] dimensionSet : typedSets) {
+                data.add(datumSpecification.apply(
+                        new MetricDatum().withMetricName(name).withDimensions(dimensionSet)
+                ));
+            }
+        }
+        return data;
+    }
+
+    Dimension[][] typedDimensionSets(String typeName, String typeValue) {
+        TypedDimensionSets[] typed = this.typedDimensionSets;
+        for (TypedDimensionSets candidate : typed) {
+            if (candidate.typeValue.equals(typeValue) && candidate.typeName.equals(typeName)) {
+                return candidate.dimensionSets;
+            }
+        }
+
+        Dimension typeDimension = new Dimension().withName(typeName).withValue(typeValue);
+        Dimension[][] typedSets = new Dimension[dimensionSets.length][];
+        for (int i = 0; i < dimensionSets.length; i++) {
+            typedSets[i] = new Dimension[dimensionSets[i].length + 1];
+            typedSets[i][0] = typeDimension;
+            System.arraycopy(dimensionSets[i], 0, typedSets[i], 1, dimensionSets[i].length);
+        }
+
+        TypedDimensionSets[] grown = Arrays.copyOf(typed, typed.length + 1);
+        grown[typed.length] = new TypedDimensionSets(typeName, typeValue, typedSets);
+        this.typedDimensionSets = grown;
+        return typedSets;
+    }
 
+    private static String[] expandNames(PermutableChain<String> nameChain) {
+        if (nameChain == null) {
+            return new String[0];
+        }
+        List<String> names = new ArrayList<String>();
         for (Iterable<String> nameSet : nameChain) {
             String name = StringUtils.join(nameSet, " ");
             if (StringUtils.isBlank(name)) {
@@ -92,14 +155,32 @@ class DemuxedKey {
                 // This is expected and supported but of course can not be submitted.
                 continue;
             }
-            for (Iterable<Dimension> dimensionSet : withDimensionChain) {
-                data.add(datumSpecification.apply(
-                        new MetricDatum().withMetricName(name).withDimensions(Lists.newArrayList(dimensionSet))
-                ));
-            }
+            names.add(name);
         }
+        return names.toArray(new String[names.size()]);
+    }
 
-        return data;
+    private static Dimension[][] expandDimensions(PermutableChain<Dimension> dimensionChain) {
+        if (dimensionChain == null) {
+            return new Dimension[][]{new Dimension[0]};
+        }
+        List<Dimension[]> dimensionSets = new ArrayList<Dimension[]>();
+        for (Iterable<Dimension> dimensionSet : dimensionChain) {
+            dimensionSets.add(Iterables.toArray(dimensionSet, Dimension.class));
+        }
+        return dimensionSets.toArray(new Dimension[dimensionSets.size()][]);
+    }
+
+    private static class TypedDimensionSets {
+        final String typeName;
+        final String typeValue;
+        final Dimension[][] dimensionSets;
+
+        TypedDimensionSets(String typeName, String typeValue, Dimension[][] dimensionSets) {
+            this.typeName = typeName;
+            this.typeValue = typeValue;
+            this.dimensionSets = dimensionSets;
+        }
     }
 }
 
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import java.util.List;
+
+/**
+ * Compresses sampled values into the distinct values and counts of a CloudWatch Values/Counts datum, from which
+ * CloudWatch computes percentiles server-side. Values are grouped into log-linear buckets, each power of two split
+ * into 2<sup>precision - 1</sup> linear sub-buckets, and each bucket is represented by the mean of its samples. The
+ * sum and count of the samples are therefore exact, and any other value is off by at most the width of its bucket,
+ * 1.6% at the starting precision. Precision is reduced as needed to fit CloudWatch's limit on distinct values.
+ */
+class DistributionBuckets {
+
+    /**
+     * CloudWatch accepts at most this many distinct values per datum.
+     */
+    static final int MAX_VALUES = 150;
+
+    /**
+     * Significant bits kept of each value to start with, i.e. 64 sub-buckets per power of two.
+     */
+    static final int PRECISION_BITS = 7;
+
+    /**
+     * @param sortedSamples as given by {@link com.codahale.metrics.Snapshot#getValues()}
+     * @param rescale       multiplied into each value, e.g. to convert nanoseconds to milliseconds
+     * @param values        to add the distinct, rescaled values to
+     * @param counts        to add the number of samples of each value to
+     */
+    static void compress(long[] sortedSamples, double rescale, List<Double> values, List<Double> counts) {
+        compress(sortedSamples, null, rescale, values, counts);
+    }
+
+    /**
+     * @param sortedValues distinct or repeated values in ascending order
+     * @param weights      number of samples of each value, or null if each value is one sample
+     * @param rescale      multiplied into each value, e.g. to convert nanoseconds to milliseconds
+     * @param values       to add the distinct, rescaled values to
+     * @param counts       to add the number of samples of each value to
+     */
+    static void compress(long[] sortedValues, long[] weights, double rescale, List<Double> values, List<Double> counts) {
+        int precisionBits = PRECISION_BITS;
+        // With 1 bit of precision there is one bucket per power of two and sign, which always fits.
+        while (precisionBits > 1 && countBuckets(sortedValues, precisionBits) > MAX_VALUES) {
+            precisionBits--;
+        }
+
+        int i = 0;
+        while (i < sortedValues.length) {
+            long bucket = bucket(sortedValues[i], precisionBits);
+            double sum = 0;
+            long count = 0;
+            // Bucketing is monotonic, so a bucket's samples are adjacent in sorted order.
+            while (i < sortedValues.length && bucket(sortedValues[i], precisionBits) == bucket) {
+                long weight = weights == null ? 1 : weights[i];
+                sum += (double) sortedValues[i] * weight;
+                count += weight;
+                i++;
+            }
+            if (count > 0) {
+                values.add(sum / count * rescale);
+                counts.add((double) count);
+            }
+        }
+    }
+
+    static int countBuckets(long[] sortedSamples, int precisionBits) {
+        int buckets = 0;
+        for (int i = 0; i < sortedSamples.length; i++) {
+            if (i == 0 || bucket(sortedSamples[i], precisionBits) != bucket(sortedSamples[i - 1], precisionBits)) {
+                buckets++;
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * @return the value with all but its most significant bits cleared, keeping its sign
+     */
+    static long bucket(long value, int precisionBits) {
+        long magnitude = value == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(value);
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(magnitude) - precisionBits);
+        long bucket = (magnitude >>> shift) << shift;
+        return value < 0 ? -bucket : bucket;
+    }
+}
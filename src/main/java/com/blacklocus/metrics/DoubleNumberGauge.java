@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe gauge of a primitive double, so that updating it from a hot loop does not box a new value each time
+ * the way a {@link NumberGauge} does. The {@link CloudWatchReporter} reads it without allocating. The double is held
+ * as its raw long bits in an {@link AtomicLong}.
+ * <p>
+ * Values given to {@link #update(double)} are combined according to a {@link GaugeUpdateMode}. A gauge may also reset
+ * to its initial value each time it is reported, so that it describes only the report interval. See
+ * {@link LongNumberGauge}.
+ */
+public class DoubleNumberGauge implements DoubleGauge {
+
+    private final AtomicLong bits;
+    private final long initialBits;
+    private final GaugeUpdateMode mode;
+    private final boolean resetOnReport;
+
+    /**
+     * Initialized with value of 0.
+     */
+    public DoubleNumberGauge() {
+        this(0.0);
+    }
+
+    public DoubleNumberGauge(double initialValue) {
+        this(GaugeUpdateMode.SET, initialValue, false);
+    }
+
+    /**
+     * @param mode          how {@link #update(double)} combines values
+     * @param initialValue  of the gauge, and the value it returns to when reset
+     * @param resetOnReport whether to reset to the initial value each time the {@link CloudWatchReporter} reports it
+     */
+    public DoubleNumberGauge(GaugeUpdateMode mode, double initialValue, boolean resetOnReport) {
+        this.initialBits = Double.doubleToRawLongBits(initialValue);
+        this.bits = new AtomicLong(initialBits);
+        this.mode = mode;
+        this.resetOnReport = resetOnReport;
+    }
+
+    /**
+     * @return a gauge of the greatest value updated in each report interval, or 0 if none were
+     */
+    public static DoubleNumberGauge highWatermark() {
+        return new DoubleNumberGauge(GaugeUpdateMode.MAX, 0.0, true);
+    }
+
+    @Override
+    public Double getValue() {
+        return getDoubleValue();
+    }
+
+    @Override
+    public double getDoubleValue() {
+        return Double.longBitsToDouble(bits.get());
+    }
+
+    /**
+     * Replaces the value, regardless of the {@link GaugeUpdateMode}.
+     */
+    public void setValue(double n) {
+        bits.set(Double.doubleToRawLongBits(n));
+    }
+
+    /**
+     * Combines the value according to the {@link GaugeUpdateMode}.
+     */
+    public void update(double n) {
+        if (mode == GaugeUpdateMode.SET) {
+            setValue(n);
+            return;
+        }
+
+        long currentBits;
+        double next;
+        do {
+            currentBits = bits.get();
+            double current = Double.longBitsToDouble(currentBits);
+            switch (mode) {
+                case ADD:
+                    next = current + n;
+                    break;
+                case MAX:
+                    next = Math.max(current, n);
+                    break;
+                case MIN:
+                    next = Math.min(current, n);
+                    break;
+                default:
+                    throw new IllegalStateException("Unhandled mode " + mode);
+            }
+            if (next == current) {
+                return;
+            }
+        } while (!bits.compareAndSet(currentBits, Double.doubleToRawLongBits(next)));
+    }
+
+    /**
+     * Read by the {@link CloudWatchReporter}, resetting the gauge if so configured.
+     */
+    double reportValue() {
+        return Double.longBitsToDouble(resetOnReport ? bits.getAndSet(initialBits) : bits.get());
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+/**
+ * How {@link LongNumberGauge#update(long)} and {@link DoubleNumberGauge#update(double)} combine a new value with the
+ * current value of the gauge.
+ */
+public enum GaugeUpdateMode {
+
+    /**
+     * The new value replaces the current value.
+     */
+    SET,
+
+    /**
+     * The new value is added to the current value.
+     */
+    ADD,
+
+    /**
+     * The greater of the two is kept, e.g. for a high-watermark.
+     */
+    MAX,
+
+    /**
+     * The lesser of the two is kept, e.g. for a low-watermark.
+     */
+    MIN
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Histogram;
+
+/**
+ * A {@link Histogram} which records the full distribution of values into an {@link HdrHistogramReservoir}, to within
+ * its significant digits. Each update is a wait-free HdrHistogram record and an atomic increment, without allocation.
+ * {@link #getSnapshot()} returns the distribution since the previous snapshot and resets it, which the
+ * {@link CloudWatchReporter} does once per report. Register it like any other metric.
+ * <pre>
+ *     HdrHistogramHistogram batchSizes = metricRegistry.register("BatchSize",
+ *             new HdrHistogramHistogram(new HdrHistogramReservoir(100000, 2)));
+ * </pre>
+ */
+public class HdrHistogramHistogram extends Histogram {
+
+    private final HdrHistogramReservoir reservoir;
+
+    public HdrHistogramHistogram() {
+        this(new HdrHistogramReservoir());
+    }
+
+    /**
+     * @param reservoir to record values into
+     */
+    public HdrHistogramHistogram(HdrHistogramReservoir reservoir) {
+        super(reservoir);
+        this.reservoir = reservoir;
+    }
+
+    @Override
+    public void update(int value) {
+        update((long) value);
+    }
+
+    @Override
+    public void update(long value) {
+        reservoir.update(value);
+    }
+
+    /**
+     * @return total number of values ever recorded
+     */
+    @Override
+    public long getCount() {
+        return reservoir.getCount();
+    }
+
+    /**
+     * @return distribution of the values recorded since the previous snapshot
+     */
+    @Override
+    public HdrHistogramSnapshot getSnapshot() {
+        return reservoir.getSnapshot();
+    }
+}
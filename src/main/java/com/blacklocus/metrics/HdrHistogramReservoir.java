@@ -0,0 +1,112 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Reservoir} backed by an HdrHistogram {@link Recorder}, which keeps the distribution of all values since
+ * the last {@link #getSnapshot()} to a fixed number of significant digits, rather than a sample of them. Each snapshot
+ * swaps out the recorder's interval histogram without blocking writers, and resets it. Give it to a metric to use it,
+ * e.g.
+ * <pre>
+ *     metricRegistry.register("Latency", new Timer(new HdrHistogramReservoir()));
+ * </pre>
+ * or use an {@link HdrHistogramTimer} or {@link HdrHistogramHistogram} which are built directly around it. The
+ * {@link CloudWatchReporter} sends the resulting {@link HdrHistogramSnapshot}s as a StatisticSet or as Values/Counts,
+ * plus any percentiles it is configured with.
+ * <p>
+ * The histograms cover a fixed range so that updates never allocate. Values outside of it are clamped to it: negative
+ * values count as 0 and values above the highest trackable value count as that. Each reservoir holds two histograms,
+ * whose size grows with the number of significant digits and the log of the range; a few tens of KiB with the
+ * defaults.
+ * <p>
+ * Since reading resets it, a {@link Histogram} or {@link Timer} using this reservoir should be read by only one
+ * reporter.
+ */
+public class HdrHistogramReservoir implements Reservoir {
+
+    /**
+     * Default highest trackable value, one hour in nanoseconds, which covers any duration given to a {@link Timer}.
+     */
+    public static final long DEF_HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * Default number of significant decimal digits kept of each value, i.e. within 1%.
+     */
+    public static final int DEF_SIGNIFICANT_DIGITS = 2;
+
+    private final Recorder recorder;
+    private final long highestTrackableValue;
+    private final AtomicLong count = new AtomicLong();
+
+    // Only touched under the monitor, by getSnapshot()
+    private org.HdrHistogram.Histogram recycled;
+    private long snapshotCount = 0;
+
+    public HdrHistogramReservoir() {
+        this(DEF_HIGHEST_TRACKABLE_VALUE, DEF_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param highestTrackableValue highest value distinguished. Greater values are recorded as this.
+     * @param significantDigits     number of significant decimal digits kept of each value, from 0 to 5
+     */
+    public HdrHistogramReservoir(long highestTrackableValue, int significantDigits) {
+        this.recorder = new Recorder(highestTrackableValue, significantDigits);
+        this.highestTrackableValue = highestTrackableValue;
+    }
+
+    /**
+     * @return number of values recorded since the last snapshot, saturated to an int
+     */
+    @Override
+    public int size() {
+        return (int) Math.max(0, Math.min(getCount() - snapshotCount, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void update(long value) {
+        recorder.recordValue(value < 0 ? 0 : Math.min(value, highestTrackableValue));
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return total number of values ever recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return distribution of the values recorded since the previous snapshot
+     */
+    @Override
+    public synchronized HdrHistogramSnapshot getSnapshot() {
+        org.HdrHistogram.Histogram interval = recorder.getIntervalHistogram(recycled);
+        HdrHistogramSnapshot snapshot = new HdrHistogramSnapshot(interval);
+        // The snapshot copied what it needs, so the interval histogram can be reset and recorded into from the next swap.
+        recycled = interval;
+        snapshotCount += snapshot.getCount();
+        return snapshot;
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * A {@link Snapshot} of an HdrHistogram, such as an interval histogram of an {@link HdrHistogramReservoir}. Rather
+ * than every sample, it keeps each distinct recorded value bucket and its count, so its size depends only on the
+ * spread of the values and not on how many were recorded. Values are the middle of their bucket, within the
+ * histogram's significant digits of what was recorded.
+ * <p>
+ * {@link #getValues()} returns each recorded bucket value once, not once per sample. Use {@link #getCounts()} for
+ * the number of samples of each. The {@link CloudWatchReporter} submits these directly from the buckets, either as a
+ * StatisticSet or as Values/Counts, without expanding them into samples.
+ */
+public class HdrHistogramSnapshot extends Snapshot {
+
+    private final long[] values;
+    private final long[] counts;
+    private final long count;
+    private final double sum;
+    private final long min;
+    private final long max;
+    private final double stdDev;
+
+    /**
+     * @param histogram to copy the recorded values of. Not retained, so it may be reset or recycled afterwards.
+     */
+    public HdrHistogramSnapshot(AbstractHistogram histogram) {
+        int buckets = 0;
+        for (HistogramIterationValue ignored : histogram.recordedValues()) {
+            buckets++;
+        }
+        values = new long[buckets];
+        counts = new long[buckets];
+        long count = 0;
+        double sum = 0;
+        int i = 0;
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            if (i == buckets) {
+                break;
+            }
+            values[i] = histogram.medianEquivalentValue(value.getValueIteratedTo());
+            counts[i] = value.getCountAtValueIteratedTo();
+            count += counts[i];
+            sum += (double) values[i] * counts[i];
+            i++;
+        }
+        this.count = count;
+        this.sum = sum;
+        this.min = count == 0 ? 0 : histogram.getMinValue();
+        this.max = count == 0 ? 0 : histogram.getMaxValue();
+        this.stdDev = count == 0 ? 0 : histogram.getStdDeviation();
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return sum of the values recorded, each taken as the middle of its bucket
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return number of values recorded in each bucket of {@link #getValues()}
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * @return the bucket value below or at which the given fraction of recorded values lie
+     */
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        if (count == 0) {
+            return 0;
+        } else if (quantile == 0.0) {
+            return min;
+        } else if (quantile == 1.0) {
+            return max;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < values.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return values[i];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return each distinct recorded bucket value once, in ascending order
+     */
+    @Override
+    public long[] getValues() {
+        return values.clone();
+    }
+
+    /**
+     * @return {@link #getCount()}, saturated to an int
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    @Override
+    public long getMin() {
+        return min;
+    }
+
+    @Override
+    public double getStdDev() {
+        return stdDev;
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        PrintWriter out = new PrintWriter(output);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                out.printf("%d %d%n", values[i], counts[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Unlike {@link #getValues()}, for the reporter, which does not modify it.
+     */
+    long[] values() {
+        return values;
+    }
+
+    /**
+     * Unlike {@link #getCounts()}, for the reporter, which does not modify it.
+     */
+    long[] counts() {
+        return counts;
+    }
+}
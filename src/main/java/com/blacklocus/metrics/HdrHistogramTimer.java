@@ -0,0 +1,85 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Timer} which records the full distribution of durations into an {@link HdrHistogramReservoir}, to within
+ * its significant digits. Each update is a wait-free HdrHistogram record and an atomic increment, without allocation,
+ * and there is no meter. {@link #getSnapshot()} returns the distribution since the previous snapshot and resets it,
+ * which the {@link CloudWatchReporter} does once per report. Register it like any other metric.
+ * <pre>
+ *     HdrHistogramTimer latency = metricRegistry.register("Latency", new HdrHistogramTimer());
+ * </pre>
+ * Rates are not tracked. The rate methods inherited from Timer always return 0.
+ */
+public class HdrHistogramTimer extends Timer {
+
+    private final HdrHistogramReservoir reservoir;
+    private final Clock clock;
+
+    public HdrHistogramTimer() {
+        this(new HdrHistogramReservoir(), Clock.defaultClock());
+    }
+
+    /**
+     * @param reservoir to record durations into, in nanoseconds
+     * @param clock     used to time {@link #time()} and {@link #time(Callable)}
+     */
+    public HdrHistogramTimer(HdrHistogramReservoir reservoir, Clock clock) {
+        super(reservoir, clock);
+        this.reservoir = reservoir;
+        this.clock = clock;
+    }
+
+    @Override
+    public void update(long duration, TimeUnit unit) {
+        if (duration >= 0) {
+            reservoir.update(unit.toNanos(duration));
+        }
+    }
+
+    @Override
+    public <T> T time(Callable<T> event) throws Exception {
+        final long startTime = clock.getTick();
+        try {
+            return event.call();
+        } finally {
+            update(clock.getTick() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return total number of durations ever recorded
+     */
+    @Override
+    public long getCount() {
+        return reservoir.getCount();
+    }
+
+    /**
+     * @return distribution of the durations recorded since the previous snapshot, in nanoseconds
+     */
+    @Override
+    public HdrHistogramSnapshot getSnapshot() {
+        return reservoir.getSnapshot();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A HyperLogLog sketch of the number of distinct strings added to it, in a fixed 1 KiB regardless of how many. The
+ * estimate is typically within a few percent. Not thread safe.
+ */
+class HyperLogLog {
+
+    /**
+     * Bits of each hash that pick a register.
+     */
+    private static final int P = 10;
+    private static final int M = 1 << P;
+    private static final double ALPHA_M_M = 0.7213 / (1 + 1.079 / M) * M * M;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final byte[] registers = new byte[M];
+
+    void add(String value) {
+        long hash = HASH.hashString(value, Charsets.UTF_8).asLong();
+        int register = (int) (hash >>> (Long.SIZE - P));
+        // Position of the first 1 bit in the rest of the hash. A sentinel bit caps it when the rest is all zeroes.
+        int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    long estimate() {
+        double sum = 0;
+        int zeroes = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeroes++;
+            }
+        }
+        double estimate = ALPHA_M_M / sum;
+        if (estimate <= 2.5 * M && zeroes > 0) {
+            // Linear counting is more accurate for small cardinalities.
+            estimate = M * Math.log((double) M / zeroes);
+        }
+        return Math.round(estimate);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+/**
+ * A map of object identity to primitive long, for per-metric reporter state that is read and written for every
+ * metric on every report. Keys are compared by reference like an {@link java.util.IdentityHashMap}, and values are
+ * never boxed. Absent keys read as 0.
+ * <p>
+ * Open addressing with linear probing. Not thread-safe.
+ */
+class IdentityLongMap<K> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private Object[] keys;
+    private long[] values;
+    private int size;
+
+    IdentityLongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of keys to size for
+     */
+    IdentityLongMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(K key) {
+        return keys[indexOf(key)] != null;
+    }
+
+    /**
+     * @return the value of the key, or 0 if absent
+     */
+    long get(K key) {
+        int index = indexOf(key);
+        return keys[index] != null ? values[index] : 0L;
+    }
+
+    /**
+     * @return the previous value of the key, or 0 if absent
+     */
+    long put(K key, long value) {
+        int index = indexOf(key);
+        if (keys[index] != null) {
+            long previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        if (++size > keys.length / 2) {
+            resize(keys.length * 2);
+        }
+        return 0L;
+    }
+
+    /**
+     * @return the removed value of the key, or 0 if absent
+     */
+    long remove(K key) {
+        int index = indexOf(key);
+        if (keys[index] == null) {
+            return 0L;
+        }
+        long removed = values[index];
+        keys[index] = null;
+        size--;
+
+        // Shift back any following entries of the probe run that could no longer be found past the hole.
+        int mask = keys.length - 1;
+        int hole = index;
+        for (int i = (index + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            if ((i - home & mask) >= (i - hole & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                keys[i] = null;
+                hole = i;
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @return index of the key, or of the empty slot where it belongs
+     */
+    private int indexOf(Object key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != null && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new long[capacity];
+        size = 0;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize) * 4 - 1));
+    }
+
+    private static int hash(Object key) {
+        // identityHashCode tends to have poor low bits on some VMs.
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
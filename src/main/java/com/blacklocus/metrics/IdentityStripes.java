@@ -0,0 +1,55 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Per-object state split into stripes by identity hash, each stripe guarded by its own monitor, so that parallel
+ * translation shards can update the state of their metrics concurrently.
+ * <pre>
+ *     IdentityLongMap&lt;Counting&gt; stripe = stripes.of(metric);
+ *     synchronized (stripe) {
+ *         stripe.put(metric, count);
+ *     }
+ * </pre>
+ */
+class IdentityStripes<S> {
+
+    /**
+     * Number of independently locked stripes, a power of two.
+     */
+    static final int STRIPES = 16;
+
+    private final Object[] stripes = new Object[STRIPES];
+
+    /**
+     * @param newStripe creates each stripe's state
+     */
+    IdentityStripes(Supplier<? extends S> newStripe) {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = newStripe.get();
+        }
+    }
+
+    /**
+     * @return the stripe holding the object's state, to synchronize on while using it
+     */
+    @SuppressWarnings("unchecked")
+    S of(Object key) {
+        return (S) stripes[System.identityHashCode(key) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * A {@link Gauge} which can also give its value as a primitive long. The {@link CloudWatchReporter} reads it through
+ * {@link #getLongValue()}, so that no boxed value is created per report.
+ */
+public interface LongGauge extends Gauge<Long> {
+
+    /**
+     * @return the same value as {@link #getValue()}, unboxed
+     */
+    long getLongValue();
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe gauge of a primitive long, so that updating it from a hot loop does not box a new value each time the
+ * way a {@link NumberGauge} does. The {@link CloudWatchReporter} reads it without allocating.
+ * <p>
+ * Values given to {@link #update(long)} are combined according to a {@link GaugeUpdateMode}. A gauge may also reset to
+ * its initial value each time it is reported, so that it describes only the report interval, e.g.
+ * <pre>
+ *     LongNumberGauge queueDepth = metricRegistry.register("QueueDepthMax", LongNumberGauge.highWatermark());
+ *     ...
+ *     queueDepth.update(queue.size());
+ * </pre>
+ */
+public class LongNumberGauge implements LongGauge {
+
+    private final AtomicLong value;
+    private final long initialValue;
+    private final GaugeUpdateMode mode;
+    private final boolean resetOnReport;
+
+    /**
+     * Initialized with value of 0.
+     */
+    public LongNumberGauge() {
+        this(0L);
+    }
+
+    public LongNumberGauge(long initialValue) {
+        this(GaugeUpdateMode.SET, initialValue, false);
+    }
+
+    /**
+     * @param mode          how {@link #update(long)} combines values
+     * @param initialValue  of the gauge, and the value it returns to when reset
+     * @param resetOnReport whether to reset to the initial value each time the {@link CloudWatchReporter} reports it
+     */
+    public LongNumberGauge(GaugeUpdateMode mode, long initialValue, boolean resetOnReport) {
+        this.value = new AtomicLong(initialValue);
+        this.initialValue = initialValue;
+        this.mode = mode;
+        this.resetOnReport = resetOnReport;
+    }
+
+    /**
+     * @return a gauge of the greatest value updated in each report interval, or 0 if none were
+     */
+    public static LongNumberGauge highWatermark() {
+        return new LongNumberGauge(GaugeUpdateMode.MAX, 0L, true);
+    }
+
+    @Override
+    public Long getValue() {
+        return value.get();
+    }
+
+    @Override
+    public long getLongValue() {
+        return value.get();
+    }
+
+    /**
+     * Replaces the value, regardless of the {@link GaugeUpdateMode}.
+     */
+    public void setValue(long n) {
+        value.set(n);
+    }
+
+    /**
+     * Combines the value according to the {@link GaugeUpdateMode}.
+     */
+    public void update(long n) {
+        switch (mode) {
+            case SET:
+                value.set(n);
+                break;
+            case ADD:
+                value.addAndGet(n);
+                break;
+            case MAX:
+                long current;
+                while (n > (current = value.get()) && !value.compareAndSet(current, n)) {
+                    // retry
+                }
+                break;
+            case MIN:
+                while (n < (current = value.get()) && !value.compareAndSet(current, n)) {
+                    // retry
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unhandled mode " + mode);
+        }
+    }
+
+    /**
+     * Read by the {@link CloudWatchReporter}, resetting the gauge if so configured.
+     */
+    long reportValue() {
+        return resetOnReport ? value.getAndSet(initialValue) : value.get();
+    }
+}
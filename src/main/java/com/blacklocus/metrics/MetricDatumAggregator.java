@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.google.common.base.Objects;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges datums of the same metric identity, i.e. same name, dimension set, unit and timestamp, into one. Two or more
+ * datums of one identity become a single {@link StatisticSet} datum whose sample count, sum, minimum and maximum are
+ * exactly what CloudWatch would have computed from the separate datums, so no statistic changes while fewer datums
+ * are sent. Values/Counts distributions of one identity are merged into one distribution with the combined counts, as
+ * long as the result stays within CloudWatch's limit on distinct values. Distributions are never merged with single
+ * values or StatisticSets. Datums with no duplicate pass through untouched.
+ */
+class MetricDatumAggregator {
+
+    /**
+     * @param data to aggregate. Merged datums are modified in place.
+     * @return the aggregated data, in order of each identity's first appearance
+     */
+    static List<MetricDatum> aggregate(Collection<MetricDatum> data) {
+        Map<Identity, MetricDatum> aggregated = new LinkedHashMap<Identity, MetricDatum>(data.size() * 4 / 3 + 1);
+        List<MetricDatum> unmerged = new ArrayList<MetricDatum>(0);
+        // Aggregates that already hold a StatisticSet of their own to merge into
+        Set<MetricDatum> owned = Collections.newSetFromMap(new IdentityHashMap<MetricDatum, Boolean>());
+        for (MetricDatum datum : data) {
+            Identity identity = new Identity(datum);
+            MetricDatum existing = aggregated.get(identity);
+            if (existing == null) {
+                aggregated.put(identity, datum);
+            } else if (identity.distribution) {
+                if (!mergeDistribution(existing, datum)) {
+                    unmerged.add(datum);
+                }
+            } else {
+                if (owned.add(existing)) {
+                    existing.setStatisticValues(toStatisticSet(existing));
+                    existing.setValue(null);
+                }
+                merge(existing.getStatisticValues(), datum);
+            }
+        }
+        List<MetricDatum> result = new ArrayList<MetricDatum>(aggregated.size() + unmerged.size());
+        result.addAll(aggregated.values());
+        result.addAll(unmerged);
+        return result;
+    }
+
+    /**
+     * Merges the source's value or statistics into an aggregate's own StatisticSet.
+     */
+    static void merge(StatisticSet into, MetricDatum source) {
+        if (source.getStatisticValues() != null) {
+            StatisticSet from = source.getStatisticValues();
+            into.setSampleCount(into.getSampleCount() + from.getSampleCount());
+            into.setSum(into.getSum() + from.getSum());
+            into.setMinimum(Math.min(into.getMinimum(), from.getMinimum()));
+            into.setMaximum(Math.max(into.getMaximum(), from.getMaximum()));
+        } else if (source.getValue() != null) {
+            double value = source.getValue();
+            into.setSampleCount(into.getSampleCount() + 1);
+            into.setSum(into.getSum() + value);
+            into.setMinimum(Math.min(into.getMinimum(), value));
+            into.setMaximum(Math.max(into.getMaximum(), value));
+        }
+    }
+
+    /**
+     * Merges the source distribution into the target distribution, unless that would exceed the number of distinct
+     * values CloudWatch accepts.
+     *
+     * @return true if merged
+     */
+    static boolean mergeDistribution(MetricDatum target, MetricDatum source) {
+        Map<Double, Double> counts = new LinkedHashMap<Double, Double>();
+        addDistribution(counts, target);
+        addDistribution(counts, source);
+        if (counts.size() > DistributionBuckets.MAX_VALUES) {
+            return false;
+        }
+        // New lists; permuted datums share theirs.
+        target.setValues(new ArrayList<Double>(counts.keySet()));
+        target.setCounts(new ArrayList<Double>(counts.values()));
+        return true;
+    }
+
+    private static void addDistribution(Map<Double, Double> counts, MetricDatum datum) {
+        List<Double> values = datum.getValues();
+        List<Double> valueCounts = datum.getCounts();
+        for (int i = 0; i < values.size(); i++) {
+            // Without counts, each value counts once.
+            double count = valueCounts.isEmpty() ? 1.0 : valueCounts.get(i);
+            Double existing = counts.get(values.get(i));
+            counts.put(values.get(i), existing == null ? count : existing + count);
+        }
+    }
+
+    /**
+     * @return a new StatisticSet of the datum's statistics. Never the datum's own, which permuted datums share.
+     */
+    private static StatisticSet toStatisticSet(MetricDatum datum) {
+        StatisticSet statistics = datum.getStatisticValues();
+        if (statistics != null) {
+            return new StatisticSet()
+                    .withSampleCount(statistics.getSampleCount())
+                    .withSum(statistics.getSum())
+                    .withMinimum(statistics.getMinimum())
+                    .withMaximum(statistics.getMaximum());
+        }
+        double value = datum.getValue();
+        return new StatisticSet().withSampleCount(1.0).withSum(value).withMinimum(value).withMaximum(value);
+    }
+
+    /**
+     * CloudWatch does not distinguish dimension order, so neither does this.
+     */
+    private static class Identity {
+        final String name;
+        final Set<Dimension> dimensions;
+        final String unit;
+        final Date timestamp;
+        final boolean distribution;
+        final int hashCode;
+
+        Identity(MetricDatum datum) {
+            this.name = datum.getMetricName();
+            this.dimensions = new HashSet<Dimension>(datum.getDimensions());
+            this.unit = datum.getUnit();
+            this.timestamp = datum.getTimestamp();
+            this.distribution = datum.getValue() == null && datum.getStatisticValues() == null;
+            this.hashCode = Objects.hashCode(name, dimensions, unit, timestamp, distribution);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Identity)) {
+                return false;
+            }
+            Identity that = (Identity) o;
+            return hashCode == that.hashCode
+                    && name.equals(that.name)
+                    && dimensions.equals(that.dimensions)
+                    && Objects.equal(unit, that.unit)
+                    && Objects.equal(timestamp, that.timestamp)
+                    && distribution == that.distribution;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
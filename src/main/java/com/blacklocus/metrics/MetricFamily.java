@@ -0,0 +1,243 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.blacklocus.metrics.MetricNameBuilder.MetricsNameSyntaxException;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.blacklocus.metrics.Constants.NAME_DIMENSION_SEPARATOR;
+import static com.blacklocus.metrics.Constants.NAME_PERMUTE_MARKER;
+import static com.blacklocus.metrics.Constants.NAME_TOKEN_DELIMITER;
+import static com.blacklocus.metrics.Constants.VALID_DIMENSION_PART_RGX;
+import static com.blacklocus.metrics.Constants.VALID_NAME_TOKEN_RGX;
+
+/**
+ * A family of metrics of one name, one per combination of values of its labels, each label a CloudWatch
+ * {@link com.amazonaws.services.cloudwatch.model.Dimension}. Rather than encoding a name such as
+ * <code>"Requests endpoint=/foo status=200*"</code> and looking it up in a registry on every update, look up the child
+ * by its label values, which after the first time is a single hash lookup.
+ * <pre>
+ *     CloudWatchCounterFamily requests = new CloudWatchCounterFamily("Requests", "endpoint", "status*");
+ *     reporter.addFamily(requests);
+ *     ...
+ *     requests.get("/foo", "200").inc();
+ * </pre>
+ * A label name may end with the permute marker <code>*</code> to send its children with and without that dimension.
+ * Names and label values are validated once, as each child is created. Families of one or two labels are best read
+ * through {@link #get(String)} and {@link #get(String, String)}, which look children up without allocating. Children
+ * are reported directly by the {@link CloudWatchReporter} the family was added to, which keeps each child's parsed
+ * name, so a family should be added to only one reporter. Children are never removed.
+ */
+public abstract class MetricFamily<M extends Metric> {
+
+    private final String name;
+    private final String[] labelNames;
+    private final Class<M> type;
+
+    /**
+     * Children by their label values.
+     */
+    private final ConcurrentMap<LabelValues, ReportedMetric<M>> children =
+            new ConcurrentHashMap<LabelValues, ReportedMetric<M>>();
+
+    /**
+     * The same children of a family of one label, by its value.
+     */
+    private final ConcurrentMap<String, ReportedMetric<M>> childrenByValue =
+            new ConcurrentHashMap<String, ReportedMetric<M>>();
+
+    /**
+     * The same children of a family of two labels, by the first value, then the second.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, ReportedMetric<M>>> childrenByValues =
+            new ConcurrentHashMap<String, ConcurrentMap<String, ReportedMetric<M>>>();
+
+    /**
+     * @param name       encoded name of every child, which may include name tokens and dimensions of its own, e.g.
+     *                   <code>"Requests service=web"</code>
+     * @param type       of the children, one of {@link Counter}, {@link Histogram}, {@link Meter} and {@link Timer}.
+     *                   There are no families of {@link com.codahale.metrics.Gauge}s, whose values are read rather
+     *                   than recorded.
+     * @param labelNames names of the dimensions whose values distinguish children, each optionally ending with the
+     *                   permute marker
+     * @throws MetricsNameSyntaxException on validation failure
+     */
+    protected MetricFamily(String name, Class<M> type, String... labelNames) throws MetricsNameSyntaxException {
+        if (type != Counter.class && type != Histogram.class && type != Meter.class && type != Timer.class) {
+            throw new IllegalArgumentException("Metric families are of Counter, Histogram, Meter or Timer, not " +
+                    type.getName());
+        }
+        // Validates the name.
+        this.name = new MetricNameBuilder(name).build();
+        this.type = type;
+        this.labelNames = labelNames.clone();
+        for (String labelName : labelNames) {
+            if (!labelName.matches(VALID_NAME_TOKEN_RGX)) {
+                throw new MetricsNameSyntaxException("Label name must match " + VALID_NAME_TOKEN_RGX);
+            }
+        }
+    }
+
+    /**
+     * @param labelValues of the child, one per label name, in order
+     * @return the child of the label values, created if this is the first time they are seen
+     * @throws MetricsNameSyntaxException if the child is new and a value is not a valid dimension value
+     */
+    public M get(String... labelValues) throws MetricsNameSyntaxException {
+        checkArity(labelValues.length);
+        ReportedMetric<M> child = children.get(new LabelValues(labelValues));
+        if (child == null) {
+            child = newChild(labelValues.clone());
+        }
+        return child.metric;
+    }
+
+    /**
+     * @param labelValue of the child of a family of one label
+     * @return the child of the label value, created if this is the first time it is seen
+     * @throws MetricsNameSyntaxException if the child is new and the value is not a valid dimension value
+     */
+    public M get(String labelValue) throws MetricsNameSyntaxException {
+        checkArity(1);
+        ReportedMetric<M> child = labelValue == null ? null : childrenByValue.get(labelValue);
+        if (child == null) {
+            child = newChild(new String[]{labelValue});
+            childrenByValue.putIfAbsent(labelValue, child);
+        }
+        return child.metric;
+    }
+
+    /**
+     * @param labelValue1 of the child of a family of two labels, for the first label
+     * @param labelValue2 of the child, for the second label
+     * @return the child of the label values, created if this is the first time they are seen
+     * @throws MetricsNameSyntaxException if the child is new and a value is not a valid dimension value
+     */
+    public M get(String labelValue1, String labelValue2) throws MetricsNameSyntaxException {
+        checkArity(2);
+        ConcurrentMap<String, ReportedMetric<M>> byValue2 =
+                labelValue1 == null ? null : childrenByValues.get(labelValue1);
+        ReportedMetric<M> child = byValue2 == null || labelValue2 == null ? null : byValue2.get(labelValue2);
+        if (child == null) {
+            child = newChild(new String[]{labelValue1, labelValue2});
+            if (byValue2 == null) {
+                ConcurrentMap<String, ReportedMetric<M>> created = new ConcurrentHashMap<String, ReportedMetric<M>>();
+                byValue2 = childrenByValues.putIfAbsent(labelValue1, created);
+                if (byValue2 == null) {
+                    byValue2 = created;
+                }
+            }
+            byValue2.putIfAbsent(labelValue2, child);
+        }
+        return child.metric;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getLabelNames() {
+        return Collections.unmodifiableList(Arrays.asList(labelNames));
+    }
+
+    /**
+     * @return number of children
+     */
+    public int size() {
+        return children.size();
+    }
+
+    /**
+     * @return a new child metric
+     */
+    protected abstract M newMetric();
+
+    Class<M> type() {
+        return type;
+    }
+
+    Collection<ReportedMetric<M>> children() {
+        return children.values();
+    }
+
+    private void checkArity(int values) {
+        if (values != labelNames.length) {
+            throw new IllegalArgumentException("Expected " + labelNames.length + " label values, got " + values);
+        }
+    }
+
+    /**
+     * @return the child of the label values, created unless another thread just did
+     */
+    private ReportedMetric<M> newChild(String[] labelValues) {
+        StringBuilder childName = new StringBuilder(name);
+        for (int i = 0; i < labelValues.length; i++) {
+            if (labelValues[i] == null || !labelValues[i].matches(VALID_DIMENSION_PART_RGX)) {
+                throw new MetricsNameSyntaxException("Label value must match " + VALID_DIMENSION_PART_RGX);
+            }
+            String labelName = labelNames[i];
+            boolean permute = labelName.endsWith(NAME_PERMUTE_MARKER);
+            childName.append(NAME_TOKEN_DELIMITER)
+                    .append(permute ? labelName.substring(0, labelName.length() - 1) : labelName)
+                    .append(NAME_DIMENSION_SEPARATOR).append(labelValues[i])
+                    .append(permute ? NAME_PERMUTE_MARKER : "");
+        }
+        LabelValues key = new LabelValues(labelValues);
+        ReportedMetric<M> child = children.get(key);
+        if (child != null) {
+            // First looked up through a fixed arity get(), or through the other one of those.
+            return child;
+        }
+        child = new ReportedMetric<M>(childName.toString(), newMetric());
+        ReportedMetric<M> raced = children.putIfAbsent(key, child);
+        return raced != null ? raced : child;
+    }
+
+    /**
+     * Key of a child, hashed once.
+     */
+    private static final class LabelValues {
+
+        private final String[] values;
+        private final int hash;
+
+        LabelValues(String[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof LabelValues && Arrays.equals(values, ((LabelValues) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
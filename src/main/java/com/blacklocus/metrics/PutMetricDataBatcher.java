@@ -0,0 +1,207 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs datums into as few PutMetricData requests as possible without exceeding a maximum number of datums or an
+ * estimated request size. PutMetricData is a form-encoded query API, so the estimate adds up each parameter the SDK
+ * will send, e.g. <code>&amp;MetricData.member.7.Dimensions.member.2.Value=...</code>, with numbers and timestamps
+ * counted at their longest possible length. It errs high, never low.
+ */
+class PutMetricDataBatcher {
+
+    // Parameter name fragments, as sent by the SDK's PutMetricDataRequestMarshaller.
+    private static final int REQUEST_BYTES = "Action=PutMetricData&Version=2010-08-01&Namespace=".length();
+    private static final int MEMBER_BYTES = "&MetricData.member..".length();
+    private static final int DIMENSION_MEMBER_BYTES = "Dimensions.member.".length();
+
+    private static final int METRIC_NAME_BYTES = "MetricName=".length();
+    private static final int DIMENSION_NAME_BYTES = ".Name=".length();
+    private static final int DIMENSION_VALUE_BYTES = ".Value=".length();
+    private static final int TIMESTAMP_BYTES = "Timestamp=".length() + "2016-01-01T00%3A00%3A00.000Z".length();
+    private static final int UNIT_BYTES = "Unit=".length();
+    private static final int VALUE_BYTES = "Value=".length();
+    private static final int VALUES_MEMBER_BYTES = "Values.member.=".length();
+    private static final int COUNTS_MEMBER_BYTES = "Counts.member.=".length();
+    private static final int STORAGE_RESOLUTION_BYTES = "StorageResolution=".length();
+    private static final int STATISTIC_VALUES_BYTES = 4 * "StatisticValues.".length()
+            + "SampleCount=".length() + "Sum=".length() + "Minimum=".length() + "Maximum=".length();
+
+    /**
+     * Longest {@link Double#toString(double)}, e.g. -1.2345678901234567E-308
+     */
+    private static final int DOUBLE_BYTES = 24;
+
+    private final int maxDatums;
+    private final int maxBytes;
+
+    /**
+     * @param maxDatums maximum number of datums per request
+     * @param maxBytes  maximum estimated size of each request
+     */
+    PutMetricDataBatcher(int maxDatums, int maxBytes) {
+        this.maxDatums = maxDatums;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return a packer of datums given one at a time, in order, which holds no more than the batch being filled
+     */
+    Packer packer(String namespace) {
+        return new Packer(REQUEST_BYTES + encodedLength(namespace));
+    }
+
+    /**
+     * Packs datums into batches as they are given. Not thread-safe.
+     */
+    class Packer {
+
+        private final int requestBytes;
+
+        private List<MetricDatum> batch = new ArrayList<MetricDatum>();
+        private int batchBytes;
+
+        private Packer(int requestBytes) {
+            this.requestBytes = requestBytes;
+            this.batchBytes = requestBytes;
+        }
+
+        /**
+         * @return the batch completed by this datum not fitting into it, or null if it did fit. A single datum
+         * estimated larger than the maximum size still gets a batch of its own rather than being silently dropped.
+         */
+        List<MetricDatum> add(MetricDatum datum) {
+            List<MetricDatum> completed = null;
+            int datumBytes = estimateBytes(datum, batch.size() + 1);
+            if (!batch.isEmpty() && (batch.size() >= maxDatums || batchBytes + datumBytes > maxBytes)) {
+                completed = batch;
+                batch = new ArrayList<MetricDatum>(Math.min(maxDatums, completed.size()));
+                batchBytes = requestBytes;
+                datumBytes = estimateBytes(datum, 1);
+            }
+            batch.add(datum);
+            batchBytes += datumBytes;
+            return completed;
+        }
+
+        /**
+         * @return the last, partly filled batch, or null if there is none. The packer is empty afterwards.
+         */
+        List<MetricDatum> finish() {
+            if (batch.isEmpty()) {
+                return null;
+            }
+            List<MetricDatum> completed = batch;
+            batch = new ArrayList<MetricDatum>();
+            batchBytes = requestBytes;
+            return completed;
+        }
+    }
+
+    /**
+     * @return estimated size of the whole request once form-encoded
+     */
+    static int estimateRequestBytes(PutMetricDataRequest request) {
+        int bytes = REQUEST_BYTES + encodedLength(request.getNamespace());
+        List<MetricDatum> data = request.getMetricData();
+        for (int i = 0; i < data.size(); i++) {
+            bytes += estimateBytes(data.get(i), i + 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param member 1-based position of the datum in its request, which appears in every one of its parameter names
+     * @return estimated bytes the datum adds to the form-encoded request
+     */
+    static int estimateBytes(MetricDatum datum, int member) {
+        int prefix = MEMBER_BYTES + digits(member);
+        int bytes = prefix + METRIC_NAME_BYTES + encodedLength(datum.getMetricName());
+
+        List<Dimension> dimensions = datum.getDimensions();
+        for (int i = 0; i < dimensions.size(); i++) {
+            Dimension dimension = dimensions.get(i);
+            int dimensionPrefix = prefix + DIMENSION_MEMBER_BYTES + digits(i + 1);
+            bytes += dimensionPrefix + DIMENSION_NAME_BYTES + encodedLength(dimension.getName());
+            bytes += dimensionPrefix + DIMENSION_VALUE_BYTES + encodedLength(dimension.getValue());
+        }
+        if (datum.getTimestamp() != null) {
+            bytes += prefix + TIMESTAMP_BYTES;
+        }
+        if (datum.getUnit() != null) {
+            bytes += prefix + UNIT_BYTES + encodedLength(datum.getUnit());
+        }
+        if (datum.getValue() != null) {
+            bytes += prefix + VALUE_BYTES + DOUBLE_BYTES;
+        }
+        if (datum.getStatisticValues() != null) {
+            bytes += 4 * (prefix + DOUBLE_BYTES) + STATISTIC_VALUES_BYTES;
+        }
+        for (int i = 0, n = datum.getValues().size(); i < n; i++) {
+            bytes += prefix + VALUES_MEMBER_BYTES + digits(i + 1) + DOUBLE_BYTES;
+        }
+        for (int i = 0, n = datum.getCounts().size(); i < n; i++) {
+            bytes += prefix + COUNTS_MEMBER_BYTES + digits(i + 1) + DOUBLE_BYTES;
+        }
+        if (datum.getStorageResolution() != null) {
+            bytes += prefix + STORAGE_RESOLUTION_BYTES + digits(datum.getStorageResolution());
+        }
+        return bytes;
+    }
+
+    /**
+     * @return length once URL encoded, where everything but unreserved characters is percent-encoded UTF-8
+     */
+    static int encodedLength(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                length += 1;
+            } else if (c < 0x80) {
+                length += 3;
+            } else if (c < 0x800) {
+                length += 6;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 12; // with its low surrogate, 4 UTF-8 bytes
+                i++;
+            } else {
+                length += 9;
+            }
+        }
+        return length;
+    }
+
+    private static int digits(int n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
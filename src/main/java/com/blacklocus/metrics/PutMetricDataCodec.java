@@ -0,0 +1,167 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact binary form of a {@link PutMetricDataRequest}, as stored by the {@link PutMetricDataSpool}.
+ * <pre>
+ * request := version:byte namespace:utf datumCount:short datum*
+ * datum   := name:utf dimensionCount:byte (dimName:utf dimValue:utf)* timestamp:long unit:utf storageResolution:int
+ *            kind:byte value
+ * value   := (none, kind 0) | value:double (kind 1) | sampleCount:double sum:double min:double max:double (kind 2)
+ *          | valueCount:short value:double* countCount:short count:double* (kind 3)
+ * </pre>
+ * Absent timestamps are written as {@link Long#MIN_VALUE}, absent namespaces and units as empty strings, absent
+ * storage resolutions as 0.
+ */
+class PutMetricDataCodec {
+
+    static final byte VERSION = 1;
+
+    private static final byte KIND_NONE = 0;
+    private static final byte KIND_VALUE = 1;
+    private static final byte KIND_STATISTICS = 2;
+    private static final byte KIND_DISTRIBUTION = 3;
+
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final int NO_STORAGE_RESOLUTION = 0;
+
+    static byte[] encode(PutMetricDataRequest request) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * request.getMetricData().size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeUTF(nullToEmpty(request.getNamespace()));
+            out.writeShort(request.getMetricData().size());
+            for (MetricDatum datum : request.getMetricData()) {
+                out.writeUTF(datum.getMetricName());
+                out.writeByte(datum.getDimensions().size());
+                for (Dimension dimension : datum.getDimensions()) {
+                    out.writeUTF(dimension.getName());
+                    out.writeUTF(dimension.getValue());
+                }
+                out.writeLong(datum.getTimestamp() == null ? NO_TIMESTAMP : datum.getTimestamp().getTime());
+                out.writeUTF(nullToEmpty(datum.getUnit()));
+                out.writeInt(datum.getStorageResolution() == null ?
+                        NO_STORAGE_RESOLUTION : datum.getStorageResolution());
+                if (datum.getStatisticValues() != null) {
+                    StatisticSet statistics = datum.getStatisticValues();
+                    out.writeByte(KIND_STATISTICS);
+                    out.writeDouble(statistics.getSampleCount());
+                    out.writeDouble(statistics.getSum());
+                    out.writeDouble(statistics.getMinimum());
+                    out.writeDouble(statistics.getMaximum());
+                } else if (datum.getValue() != null) {
+                    out.writeByte(KIND_VALUE);
+                    out.writeDouble(datum.getValue());
+                } else if (!datum.getValues().isEmpty()) {
+                    out.writeByte(KIND_DISTRIBUTION);
+                    writeDoubles(out, datum.getValues());
+                    writeDoubles(out, datum.getCounts());
+                } else {
+                    out.writeByte(KIND_NONE);
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Not possible writing to memory.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static PutMetricDataRequest decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown spooled request version " + version);
+        }
+        String namespace = emptyToNull(in.readUTF());
+        int datumCount = in.readShort();
+        List<MetricDatum> data = new ArrayList<MetricDatum>(datumCount);
+        for (int i = 0; i < datumCount; i++) {
+            MetricDatum datum = new MetricDatum().withMetricName(in.readUTF());
+            int dimensionCount = in.readByte();
+            for (int d = 0; d < dimensionCount; d++) {
+                datum.withDimensions(new Dimension().withName(in.readUTF()).withValue(in.readUTF()));
+            }
+            long timestamp = in.readLong();
+            if (timestamp != NO_TIMESTAMP) {
+                datum.setTimestamp(new Date(timestamp));
+            }
+            datum.setUnit(emptyToNull(in.readUTF()));
+            int storageResolution = in.readInt();
+            if (storageResolution != NO_STORAGE_RESOLUTION) {
+                datum.setStorageResolution(storageResolution);
+            }
+            byte kind = in.readByte();
+            if (kind == KIND_STATISTICS) {
+                datum.setStatisticValues(new StatisticSet()
+                        .withSampleCount(in.readDouble())
+                        .withSum(in.readDouble())
+                        .withMinimum(in.readDouble())
+                        .withMaximum(in.readDouble()));
+            } else if (kind == KIND_VALUE) {
+                datum.setValue(in.readDouble());
+            } else if (kind == KIND_DISTRIBUTION) {
+                datum.setValues(readDoubles(in));
+                datum.setCounts(readDoubles(in));
+            } else if (kind != KIND_NONE) {
+                throw new IOException("Unknown spooled datum kind " + kind);
+            }
+            data.add(datum);
+        }
+        return new PutMetricDataRequest().withNamespace(namespace).withMetricData(data);
+    }
+
+    private static void writeDoubles(DataOutputStream out, List<Double> doubles) throws IOException {
+        out.writeShort(doubles.size());
+        for (Double d : doubles) {
+            out.writeDouble(d);
+        }
+    }
+
+    private static List<Double> readDoubles(DataInputStream in) throws IOException {
+        int size = in.readShort();
+        List<Double> doubles = new ArrayList<Double>(size);
+        for (int i = 0; i < size; i++) {
+            doubles.add(in.readDouble());
+        }
+        return doubles;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Submits PutMetricData requests asynchronously with at most a fixed number in flight. Submission only blocks while
+ * that window is full. Completion is signalled through a {@link Listener} rather than by waiting on futures, and
+ * requests that take longer than the request timeout are cancelled and reported as failed with a
+ * {@link TimeoutException}.
+ */
+class PutMetricDataPipeline {
+
+    /**
+     * Notified of each request's outcome, on whichever thread completes it.
+     */
+    interface Listener {
+
+        void onSuccess(PutMetricDataRequest request, long latencyNanos);
+
+        void onFailure(PutMetricDataRequest request, Exception exception, long latencyNanos);
+    }
+
+    /**
+     * How often a blocked submission checks for timed out requests.
+     */
+    private static final long EXPIRY_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AmazonCloudWatchAsync cloudWatch;
+    private final int maxInFlight;
+    private final long requestTimeoutNanos;
+    private final Listener listener;
+
+    private final Semaphore permits;
+
+    /**
+     * In submission order, so the oldest, first to time out, are at the head. Completed requests are pruned lazily.
+     */
+    private final Queue<InFlight> inFlight = new ConcurrentLinkedQueue<InFlight>();
+
+    /**
+     * @param cloudWatch           client
+     * @param maxInFlight          maximum number of requests outstanding at once
+     * @param requestTimeoutMillis after which an outstanding request is cancelled
+     * @param listener             of request outcomes
+     */
+    PutMetricDataPipeline(AmazonCloudWatchAsync cloudWatch, int maxInFlight, long requestTimeoutMillis, Listener listener) {
+        this.cloudWatch = cloudWatch;
+        this.maxInFlight = maxInFlight;
+        this.requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+        this.listener = listener;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Sends the request, first waiting for room in the window if it is full.
+     *
+     * @throws InterruptedException if interrupted while waiting for room, in which case the request was not sent
+     */
+    void submit(PutMetricDataRequest request) throws InterruptedException {
+        expire();
+        while (!permits.tryAcquire(EXPIRY_CHECK_NANOS, TimeUnit.NANOSECONDS)) {
+            expire();
+        }
+
+        final InFlight sending = new InFlight(request);
+        inFlight.add(sending);
+        try {
+            sending.future = cloudWatch.putMetricDataAsync(request, new AsyncHandler<PutMetricDataRequest, PutMetricDataResult>() {
+                @Override
+                public void onError(Exception exception) {
+                    complete(sending, exception);
+                }
+
+                @Override
+                public void onSuccess(PutMetricDataRequest request, PutMetricDataResult result) {
+                    complete(sending, null);
+                }
+            });
+        } catch (RuntimeException e) {
+            complete(sending, e);
+        }
+    }
+
+    /**
+     * Waits for all outstanding requests to complete or time out.
+     *
+     * @return true if all completed within the given time
+     */
+    boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            expire();
+            if (permits.tryAcquire(maxInFlight, Math.min(EXPIRY_CHECK_NANOS, Math.max(0, deadline - System.nanoTime())),
+                    TimeUnit.NANOSECONDS)) {
+                permits.release(maxInFlight);
+                return true;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return number of requests currently outstanding
+     */
+    int inFlightCount() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Cancels outstanding requests that have exceeded the request timeout.
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        for (Iterator<InFlight> it = inFlight.iterator(); it.hasNext(); ) {
+            InFlight candidate = it.next();
+            if (candidate.done.get()) {
+                it.remove();
+            } else if (now - candidate.startNanos >= requestTimeoutNanos) {
+                Future<?> future = candidate.future;
+                if (future != null) {
+                    future.cancel(true);
+                }
+                complete(candidate, new TimeoutException(
+                        "PutMetricData did not complete within " + TimeUnit.NANOSECONDS.toMillis(requestTimeoutNanos) + "ms"));
+                it.remove();
+            } else {
+                // Everything after was submitted later.
+                break;
+            }
+        }
+    }
+
+    private void complete(InFlight completed, Exception exception) {
+        // Only the first of completion, failure or timeout counts.
+        if (!completed.done.compareAndSet(false, true)) {
+            return;
+        }
+        permits.release();
+
+        long latencyNanos = System.nanoTime() - completed.startNanos;
+        if (exception == null) {
+            listener.onSuccess(completed.request, latencyNanos);
+        } else {
+            listener.onFailure(completed.request, exception, latencyNanos);
+        }
+    }
+
+    private static class InFlight {
+        final PutMetricDataRequest request;
+        final long startNanos = System.nanoTime();
+        final AtomicBoolean done = new AtomicBoolean();
+        volatile Future<?> future;
+
+        InFlight(PutMetricDataRequest request) {
+            this.request = request;
+        }
+    }
+}
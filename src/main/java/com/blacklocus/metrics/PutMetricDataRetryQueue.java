@@ -0,0 +1,234 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.google.common.base.Ticker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds failed PutMetricData requests so they can be re-sent on later reports, after a jittered exponential backoff.
+ * Only failures that may succeed later, such as throttling, server errors and timeouts, are retried. The queue is
+ * bounded by the number of datums held, which bounds its memory; the oldest requests are evicted first to make room.
+ * If there is a {@link PutMetricDataSpool}, retryable requests that are evicted or out of attempts are spooled to
+ * disk instead. Every datum otherwise given up on is counted as dropped.
+ */
+class PutMetricDataRetryQueue {
+
+    /**
+     * Backoff never grows beyond this.
+     */
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final int maxQueuedDatums;
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final Ticker ticker;
+    private final PutMetricDataSpool spool;
+    private final Random random = new Random();
+
+    /**
+     * Oldest first. Guarded by this.
+     */
+    private final Deque<Retry> queue = new ArrayDeque<Retry>();
+    private int queuedDatums = 0;
+
+    /**
+     * Requests re-sent from this queue to the number of times they have already failed. Guarded by this.
+     */
+    private final Map<PutMetricDataRequest, Integer> failuresByResent = new IdentityHashMap<PutMetricDataRequest, Integer>();
+
+    private final AtomicLong retriedDatums = new AtomicLong();
+    private final AtomicLong droppedDatums = new AtomicLong();
+
+    /**
+     * @param maxQueuedDatums maximum number of datums held for retry. 0 disables retries.
+     * @param maxAttempts     maximum number of times any one request is sent, including the first
+     * @param backoffMillis   delay before the first retry, doubled for each further retry
+     * @param ticker          time source for backoff
+     * @param spool           to spill retryable requests that do not fit or have run out of attempts, or null
+     */
+    PutMetricDataRetryQueue(int maxQueuedDatums, int maxAttempts, long backoffMillis, Ticker ticker,
+                            PutMetricDataSpool spool) {
+        this.maxQueuedDatums = maxQueuedDatums;
+        this.maxAttempts = maxAttempts;
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        this.ticker = ticker;
+        this.spool = spool;
+    }
+
+    /**
+     * Queues a failed request for retry if the failure is retryable and the request has attempts left. Datums without
+     * a timestamp are stamped with the time the request was sent, so that retried data lands where it belongs.
+     *
+     * @param failed       request
+     * @param cause        of the failure
+     * @param latencyNanos between sending the request and its failure
+     * @return true if queued or spooled, false if its data was dropped
+     */
+    synchronized boolean offer(PutMetricDataRequest failed, Exception cause, long latencyNanos) {
+        Integer previousFailures = failuresByResent.remove(failed);
+        int failures = (previousFailures == null ? 0 : previousFailures) + 1;
+        int size = failed.getMetricData().size();
+
+        if (!isRetryable(cause)) {
+            droppedDatums.addAndGet(size);
+            return false;
+        }
+
+        Date sent = new Date(System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        for (MetricDatum datum : failed.getMetricData()) {
+            if (datum.getTimestamp() == null) {
+                datum.setTimestamp(sent);
+            }
+        }
+
+        if (maxQueuedDatums <= 0 || failures >= maxAttempts || size > maxQueuedDatums) {
+            return spill(failed);
+        }
+
+        queue.addLast(new Retry(failed, failures, ticker.read() + backoffNanos(failures)));
+        queuedDatums += size;
+        while (queuedDatums > maxQueuedDatums) {
+            Retry evicted = queue.removeFirst();
+            queuedDatums -= evicted.request.getMetricData().size();
+            spill(evicted.request);
+        }
+        return true;
+    }
+
+    /**
+     * Spools everything queued, e.g. when the reporter is stopping. Without a spool this does nothing.
+     */
+    synchronized void spillAll() {
+        if (spool == null) {
+            return;
+        }
+        for (Retry retry : queue) {
+            spill(retry.request);
+        }
+        queue.clear();
+        queuedDatums = 0;
+    }
+
+    private boolean spill(PutMetricDataRequest request) {
+        if (spool != null && spool.append(request)) {
+            return true;
+        }
+        droppedDatums.addAndGet(request.getMetricData().size());
+        return false;
+    }
+
+    /**
+     * Removes all requests whose backoff has elapsed. The caller must send each, and report its outcome to
+     * {@link #offer} or {@link #onSuccess}. Requests failing again during sending are not returned until a later poll.
+     *
+     * @return requests to re-send, oldest first
+     */
+    synchronized List<PutMetricDataRequest> poll() {
+        List<PutMetricDataRequest> ready = new ArrayList<PutMetricDataRequest>();
+        long now = ticker.read();
+        for (Iterator<Retry> it = queue.iterator(); it.hasNext(); ) {
+            Retry retry = it.next();
+            if (now - retry.readyNanos >= 0) {
+                it.remove();
+                int size = retry.request.getMetricData().size();
+                queuedDatums -= size;
+                retriedDatums.addAndGet(size);
+                failuresByResent.put(retry.request, retry.failures);
+                ready.add(retry.request);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * @param request that was sent successfully, which may or may not have come from this queue
+     */
+    synchronized void onSuccess(PutMetricDataRequest request) {
+        failuresByResent.remove(request);
+    }
+
+    /**
+     * @return number of datums currently waiting to be retried
+     */
+    synchronized int getQueuedDatums() {
+        return queuedDatums;
+    }
+
+    /**
+     * @return cumulative number of datums re-sent
+     */
+    long getRetriedDatums() {
+        return retriedDatums.get();
+    }
+
+    /**
+     * @return cumulative number of datums given up on
+     */
+    long getDroppedDatums() {
+        return droppedDatums.get();
+    }
+
+    /**
+     * Full jitter: uniformly random between 0 and the exponential backoff for this many failures.
+     */
+    private long backoffNanos(int failures) {
+        long ceiling = TimeUnit.MILLISECONDS.toNanos(MAX_BACKOFF_MILLIS);
+        long bound = backoffNanos;
+        for (int i = 1; i < failures && bound < ceiling; i++) {
+            bound <<= 1;
+        }
+        return (long) (random.nextDouble() * Math.min(bound, ceiling));
+    }
+
+    static boolean isRetryable(Exception cause) {
+        if (cause instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException) cause;
+            return RetryUtils.isThrottlingException(ase) || RetryUtils.isRetryableServiceException(ase);
+        }
+        // Anything else from the client failed to reach or hear from CloudWatch, e.g. connection problems.
+        return cause instanceof AmazonClientException || cause instanceof TimeoutException;
+    }
+
+    private static class Retry {
+        final PutMetricDataRequest request;
+        final int failures;
+        final long readyNanos;
+
+        Retry(PutMetricDataRequest request, int failures, long readyNanos) {
+            this.request = request;
+            this.failures = failures;
+            this.readyNanos = readyNanos;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead spool of PutMetricData requests that could not be delivered, kept in a directory of fixed-size,
+ * memory-mapped segment files so that they survive outages longer than the in-memory retry queue and restarts.
+ * Requests are read back oldest first to be replayed once CloudWatch is accepting data again.
+ * <p>
+ * Each segment starts with a magic number and format version, followed by records of
+ * <code>length:int crc32:int payload</code> where the payload is a {@link PutMetricDataCodec} encoded request.
+ * The length is written last so that a torn append reads as the end of the segment. Replayed records are marked by
+ * negating their length in place, so a restart does not replay them again. Segments found on startup are only read;
+ * new appends always go to a new segment. A spool directory must only be used by one reporter at a time.
+ */
+class PutMetricDataSpool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PutMetricDataSpool.class);
+
+    static final int MAGIC = 0x4D435350; // "MCSP"
+    static final int FORMAT_VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 8;
+
+    static final String SEGMENT_PREFIX = "spool-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * CloudWatch rejects data timestamped more than two weeks ago. Leave a little room for the request to get there.
+     */
+    static final long MAX_REPLAY_AGE_MILLIS = TimeUnit.DAYS.toMillis(14) - TimeUnit.MINUTES.toMillis(10);
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final SpoolSyncPolicy syncPolicy;
+
+    /**
+     * Oldest first. The last may be the active segment being appended to. Guarded by this.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+    private Segment active;
+    private long nextSequence;
+
+    private final AtomicLong spooledDatums = new AtomicLong();
+    private final AtomicLong replayedDatums = new AtomicLong();
+    private final AtomicLong expiredDatums = new AtomicLong();
+    private final AtomicLong droppedDatums = new AtomicLong();
+
+    /**
+     * @param directory    holding the segment files, created if necessary
+     * @param segmentBytes size of each segment file
+     * @param maxBytes     total size of all segment files, beyond which the oldest segment is deleted
+     * @param syncPolicy   when to force segments to disk
+     */
+    PutMetricDataSpool(File directory, int segmentBytes, long maxBytes, SpoolSyncPolicy syncPolicy) throws IOException {
+        if (segmentBytes <= SEGMENT_HEADER_BYTES + RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException("Spool segments are too small: " + segmentBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spool directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(1, maxBytes / segmentBytes);
+        this.syncPolicy = syncPolicy;
+
+        File[] existing = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(existing); // zero-padded sequence numbers sort in order
+        for (File file : existing) {
+            try {
+                Segment segment = Segment.open(file);
+                segments.addLast(segment);
+                nextSequence = Math.max(nextSequence, segment.sequence + 1);
+            } catch (IOException e) {
+                LOG.warn("Discarding unreadable spool segment {}", file, e);
+                delete(file);
+            }
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("Found {} spool segments to replay in {}", segments.size(), directory);
+        }
+    }
+
+    /**
+     * Appends a request to the spool. Datums without a timestamp are stamped with the current time.
+     *
+     * @return true if spooled, false if it could not be and its data was dropped
+     */
+    synchronized boolean append(PutMetricDataRequest request) {
+        int size = request.getMetricData().size();
+        Date now = new Date();
+        for (MetricDatum datum : request.getMetricData()) {
+            if (datum.getTimestamp() == null) {
+                datum.setTimestamp(now);
+            }
+        }
+
+        byte[] payload = PutMetricDataCodec.encode(request);
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        if (SEGMENT_HEADER_BYTES + recordBytes > segmentBytes) {
+            LOG.error("PutMetricData request of {} bytes is too large to spool in segments of {} bytes",
+                    payload.length, segmentBytes);
+            droppedDatums.addAndGet(size);
+            return false;
+        }
+
+        try {
+            if (active == null || active.writePosition + recordBytes > segmentBytes) {
+                rotate();
+            }
+            active.append(payload);
+            if (syncPolicy == SpoolSyncPolicy.BATCH) {
+                active.buffer.force();
+            }
+            spooledDatums.addAndGet(size);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Could not spool PutMetricData request to {}", directory, e);
+            droppedDatums.addAndGet(size);
+            return false;
+        }
+    }
+
+    /**
+     * Takes the oldest spooled request, dropping any of its data that is now too old for CloudWatch to accept.
+     * The request is marked as replayed and will not be returned again, even after a restart.
+     *
+     * @return a request to replay, or null if the spool is empty
+     */
+    synchronized PutMetricDataRequest poll() {
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            byte[] payload = head.next();
+            if (payload == null) {
+                if (head == active) {
+                    return null;
+                }
+                segments.removeFirst();
+                delete(head.file);
+                continue;
+            }
+
+            PutMetricDataRequest request;
+            try {
+                request = PutMetricDataCodec.decode(payload);
+            } catch (IOException e) {
+                LOG.warn("Skipping unreadable spooled request in {}", head.file, e);
+                continue;
+            }
+
+            long oldest = System.currentTimeMillis() - MAX_REPLAY_AGE_MILLIS;
+            List<MetricDatum> fresh = new ArrayList<MetricDatum>(request.getMetricData().size());
+            for (MetricDatum datum : request.getMetricData()) {
+                if (datum.getTimestamp() != null && datum.getTimestamp().getTime() >= oldest) {
+                    fresh.add(datum);
+                }
+            }
+            expiredDatums.addAndGet(request.getMetricData().size() - fresh.size());
+            if (!fresh.isEmpty()) {
+                replayedDatums.addAndGet(fresh.size());
+                return request.withMetricData(fresh);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forces outstanding writes according to the sync policy. Appending after closing starts a new segment.
+     */
+    synchronized void close() {
+        if (active != null && syncPolicy != SpoolSyncPolicy.NEVER) {
+            active.buffer.force();
+        }
+        active = null;
+    }
+
+    /**
+     * @return cumulative number of datums written to the spool
+     */
+    long getSpooledDatums() {
+        return spooledDatums.get();
+    }
+
+    /**
+     * @return cumulative number of datums read back from the spool to be replayed
+     */
+    long getReplayedDatums() {
+        return replayedDatums.get();
+    }
+
+    /**
+     * @return cumulative number of spooled datums discarded because they were too old to replay
+     */
+    long getExpiredDatums() {
+        return expiredDatums.get();
+    }
+
+    /**
+     * @return cumulative number of datums that could not be spooled, or were deleted to keep within the size cap
+     */
+    long getDroppedDatums() {
+        return droppedDatums.get();
+    }
+
+    private void rotate() throws IOException {
+        if (active != null && syncPolicy != SpoolSyncPolicy.NEVER) {
+            active.buffer.force();
+        }
+        while (segments.size() >= maxSegments) {
+            Segment evicted = segments.removeFirst();
+            long evictedDatums = evicted.countRemainingDatums();
+            droppedDatums.addAndGet(evictedDatums);
+            LOG.warn("Spool is full, deleted {} with {} unreplayed datums", evicted.file, evictedDatums);
+            delete(evicted.file);
+        }
+        File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        active = Segment.create(file, nextSequence, segmentBytes);
+        nextSequence++;
+        segments.addLast(active);
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            LOG.warn("Could not delete spool segment {}", file);
+        }
+    }
+
+    private static class Segment {
+        final File file;
+        final long sequence;
+        final MappedByteBuffer buffer;
+        int readPosition = SEGMENT_HEADER_BYTES;
+        int writePosition = SEGMENT_HEADER_BYTES;
+
+        private Segment(File file, long sequence, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File file, long sequence, int segmentBytes) throws IOException {
+            MappedByteBuffer buffer = map(file, segmentBytes);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            return new Segment(file, sequence, buffer);
+        }
+
+        static Segment open(File file) throws IOException {
+            String name = file.getName();
+            long sequence;
+            try {
+                sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a spool segment name: " + name);
+            }
+            if (file.length() < SEGMENT_HEADER_BYTES || file.length() > Integer.MAX_VALUE) {
+                throw new IOException("Not a spool segment size: " + file.length());
+            }
+            MappedByteBuffer buffer = map(file, (int) file.length());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Not a spool segment header");
+            }
+            Segment segment = new Segment(file, sequence, buffer);
+            // Existing segments are never appended to.
+            segment.writePosition = buffer.capacity();
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                // The mapping stays valid after the channel is closed.
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                raf.close();
+            }
+        }
+
+        void append(byte[] payload) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteBuffer record = buffer.duplicate();
+            record.position(writePosition + 4);
+            record.putInt((int) crc.getValue());
+            record.put(payload);
+            // Length last: until it is written, readers see the end of the segment.
+            buffer.putInt(writePosition, payload.length);
+            writePosition += RECORD_HEADER_BYTES + payload.length;
+        }
+
+        /**
+         * @return payload of the next unreplayed record, now marked as replayed, or null at the end of the segment
+         */
+        byte[] next() {
+            int length;
+            while ((length = lengthAt(readPosition)) != 0) {
+                int position = readPosition;
+                readPosition += RECORD_HEADER_BYTES + Math.abs(length);
+                if (length > 0) {
+                    byte[] payload = payloadAt(position, length);
+                    if (payload == null) {
+                        // Corrupt, so nothing after it can be trusted either.
+                        readPosition = buffer.capacity();
+                        return null;
+                    }
+                    buffer.putInt(position, -length);
+                    return payload;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return number of datums not yet replayed
+         */
+        long countRemainingDatums() {
+            long count = 0;
+            int position = readPosition;
+            int length;
+            while ((length = lengthAt(position)) != 0) {
+                if (length > 0) {
+                    byte[] payload = payloadAt(position, length);
+                    if (payload == null) {
+                        break;
+                    }
+                    try {
+                        count += PutMetricDataCodec.decode(payload).getMetricData().size();
+                    } catch (IOException e) {
+                        // unreadable, nothing to count
+                    }
+                }
+                position += RECORD_HEADER_BYTES + Math.abs(length);
+            }
+            return count;
+        }
+
+        /**
+         * @return length of the record at the position, negative if already replayed, or 0 at the end of the segment
+         * including a torn append
+         */
+        private int lengthAt(int position) {
+            if (position + RECORD_HEADER_BYTES > buffer.capacity()) {
+                return 0;
+            }
+            int length = buffer.getInt(position);
+            if (length == Integer.MIN_VALUE || position + RECORD_HEADER_BYTES + Math.abs(length) > buffer.capacity()) {
+                return 0;
+            }
+            return length;
+        }
+
+        /**
+         * @return payload of the record at the position, or null if it fails its checksum
+         */
+        private byte[] payloadAt(int position, int length) {
+            byte[] payload = new byte[length];
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + RECORD_HEADER_BYTES);
+            record.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == buffer.getInt(position + 4) ? payload : null;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The metrics of a registry, kept up to date as metrics are added and removed rather than rebuilt on every report.
+ * Each kind is held by name in order, so that reports read in the same order as from
+ * {@link com.codahale.metrics.MetricRegistry#getGauges(MetricFilter)} and the like, without walking the whole registry
+ * and building new sorted maps each time.
+ * <p>
+ * A reporter's {@link MetricFilter} is applied to each metric every time the metrics are read, as
+ * {@link com.codahale.metrics.ScheduledReporter} would, so filters may change their minds. Children of
+ * {@link MetricFamily families} added to the reporter follow the registry's metrics of their kind, and are not
+ * filtered. Reading is weakly consistent with concurrent updates.
+ */
+class RegistryView {
+
+    private final MetricFilter filter;
+    private final Predicate<ReportedMetric<?>> matchesFilter = new MatchesFilter();
+
+    private final ConcurrentNavigableMap<String, ReportedMetric<Gauge<?>>> gauges =
+            new ConcurrentSkipListMap<String, ReportedMetric<Gauge<?>>>();
+    private final ConcurrentNavigableMap<String, ReportedMetric<Counter>> counters =
+            new ConcurrentSkipListMap<String, ReportedMetric<Counter>>();
+    private final ConcurrentNavigableMap<String, ReportedMetric<Histogram>> histograms =
+            new ConcurrentSkipListMap<String, ReportedMetric<Histogram>>();
+    private final ConcurrentNavigableMap<String, ReportedMetric<Meter>> meters =
+            new ConcurrentSkipListMap<String, ReportedMetric<Meter>>();
+    private final ConcurrentNavigableMap<String, ReportedMetric<Timer>> timers =
+            new ConcurrentSkipListMap<String, ReportedMetric<Timer>>();
+
+    private final List<MetricFamily<?>> families = new CopyOnWriteArrayList<MetricFamily<?>>();
+
+    RegistryView(MetricFilter filter) {
+        this.filter = filter;
+    }
+
+    void addGauge(String name, Gauge<?> gauge) {
+        add(gauges, name, gauge);
+    }
+
+    void addCounter(String name, Counter counter) {
+        add(counters, name, counter);
+    }
+
+    void addHistogram(String name, Histogram histogram) {
+        add(histograms, name, histogram);
+    }
+
+    void addMeter(String name, Meter meter) {
+        add(meters, name, meter);
+    }
+
+    void addTimer(String name, Timer timer) {
+        add(timers, name, timer);
+    }
+
+    /**
+     * Adds the metric to the collection of its kind, if any.
+     */
+    void add(String name, Metric metric) {
+        if (metric instanceof Gauge) {
+            addGauge(name, (Gauge<?>) metric);
+        } else if (metric instanceof Counter) {
+            addCounter(name, (Counter) metric);
+        } else if (metric instanceof Histogram) {
+            addHistogram(name, (Histogram) metric);
+        } else if (metric instanceof Meter) {
+            addMeter(name, (Meter) metric);
+        } else if (metric instanceof Timer) {
+            addTimer(name, (Timer) metric);
+        }
+    }
+
+    /**
+     * Removes the metric of the name, whatever its kind.
+     *
+     * @return the removed metric, or null if there was none
+     */
+    Metric remove(String name) {
+        ReportedMetric<?> removed = gauges.remove(name);
+        if (removed == null) {
+            removed = counters.remove(name);
+        }
+        if (removed == null) {
+            removed = histograms.remove(name);
+        }
+        if (removed == null) {
+            removed = meters.remove(name);
+        }
+        if (removed == null) {
+            removed = timers.remove(name);
+        }
+        return removed == null ? null : removed.metric;
+    }
+
+    void addFamily(MetricFamily<?> family) {
+        families.add(family);
+    }
+
+    /**
+     * @return whether the family was in the view
+     */
+    boolean removeFamily(MetricFamily<?> family) {
+        return families.remove(family);
+    }
+
+    Iterable<ReportedMetric<Gauge<?>>> gauges() {
+        return filtered(gauges.values());
+    }
+
+    Iterable<ReportedMetric<Counter>> counters() {
+        return withChildren(filtered(counters.values()), Counter.class);
+    }
+
+    Iterable<ReportedMetric<Histogram>> histograms() {
+        return withChildren(filtered(histograms.values()), Histogram.class);
+    }
+
+    Iterable<ReportedMetric<Meter>> meters() {
+        return withChildren(filtered(meters.values()), Meter.class);
+    }
+
+    Iterable<ReportedMetric<Timer>> timers() {
+        return withChildren(filtered(timers.values()), Timer.class);
+    }
+
+    /**
+     * Drops every metric's parsed key, e.g. as the global dimensions they include changed.
+     */
+    void resetKeys() {
+        for (ReportedMetric<?> metric : all()) {
+            metric.key = null;
+        }
+    }
+
+    /**
+     * Drops every metric's resolved tier, as the tiers changed.
+     */
+    void resetTiers() {
+        for (ReportedMetric<?> metric : all()) {
+            metric.tier = ReportedMetric.UNRESOLVED_TIER;
+        }
+    }
+
+    /**
+     * @return every metric, whether or not it passes the filter
+     */
+    private Iterable<ReportedMetric<?>> all() {
+        List<Iterable<? extends ReportedMetric<?>>> all = new ArrayList<Iterable<? extends ReportedMetric<?>>>();
+        all.add(gauges.values());
+        all.add(withChildren(counters.values(), Counter.class));
+        all.add(withChildren(histograms.values(), Histogram.class));
+        all.add(withChildren(meters.values(), Meter.class));
+        all.add(withChildren(timers.values(), Timer.class));
+        return Iterables.concat(all);
+    }
+
+    private <M extends Metric> Iterable<ReportedMetric<M>> filtered(Collection<ReportedMetric<M>> metrics) {
+        if (filter == MetricFilter.ALL) {
+            return metrics;
+        }
+        return Iterables.filter(metrics, matchesFilter);
+    }
+
+    /**
+     * @return the registered metrics followed by the children of families of the type
+     */
+    @SuppressWarnings("unchecked")
+    private <M extends Metric> Iterable<ReportedMetric<M>> withChildren(Iterable<ReportedMetric<M>> registered,
+                                                                         Class<M> type) {
+        if (families.isEmpty()) {
+            return registered;
+        }
+        List<Iterable<ReportedMetric<M>>> all = new ArrayList<Iterable<ReportedMetric<M>>>();
+        all.add(registered);
+        for (MetricFamily<?> family : families) {
+            if (family.type() == type) {
+                all.add(((MetricFamily<M>) family).children());
+            }
+        }
+        return Iterables.concat(all);
+    }
+
+    private <M extends Metric> void add(ConcurrentNavigableMap<String, ReportedMetric<M>> metrics, String name, M metric) {
+        metrics.put(name, new ReportedMetric<M>(name, metric));
+    }
+
+    private class MatchesFilter implements Predicate<ReportedMetric<?>> {
+        @Override
+        public boolean apply(ReportedMetric<?> metric) {
+            return filter.matches(metric.name, metric.metric);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totals of one report, accumulated by every thread translating for it, for the {@link ReporterMetrics} and
+ * {@link ReporterEvents}. Only kept while either is in use.
+ */
+class ReportCycle {
+
+    private final Object event;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong metrics = new AtomicLong();
+    private final AtomicLong datums = new AtomicLong();
+    private final AtomicLong translationNanos = new AtomicLong();
+    // Only added to by the reporting thread.
+    private int submittedDatums = 0;
+    private int requests = 0;
+
+    /**
+     * @param event from {@link ReporterEvents#beginReportCycle()}
+     */
+    ReportCycle(Object event) {
+        this.event = event;
+    }
+
+    void translated(int metricCount, int datumCount, long nanos) {
+        metrics.addAndGet(metricCount);
+        datums.addAndGet(datumCount);
+        translationNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @param datumCount   submitted by one pass over metrics, e.g. of one tier
+     * @param requestCount submitted by the pass
+     */
+    void submitted(int datumCount, int requestCount) {
+        submittedDatums += datumCount;
+        requests += requestCount;
+    }
+
+    Object getEvent() {
+        return event;
+    }
+
+    int getSubmittedDatums() {
+        return submittedDatums;
+    }
+
+    int getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of metrics translated
+     */
+    long getMetrics() {
+        return metrics.get();
+    }
+
+    /**
+     * @return number of datums translated, before filtering
+     */
+    long getDatums() {
+        return datums.get();
+    }
+
+    /**
+     * @return time spent translating, summed across threads
+     */
+    long getTranslationNanos() {
+        return translationNanos.get();
+    }
+
+    /**
+     * @return time since the report started
+     */
+    long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
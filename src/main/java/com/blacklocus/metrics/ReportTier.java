@@ -0,0 +1,121 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Assigns the metrics matching a filter a report interval of their own within a {@link CloudWatchReporter}, e.g. to
+ * ship business-critical timers every 10 seconds and JVM gauges every 5 minutes while everything else goes at the
+ * reporter's own period.
+ * <pre>
+ *     reporter.withTiers(
+ *             new ReportTier(10, TimeUnit.SECONDS, ReportTier.nameMatches("Checkout.*")),
+ *             new ReportTier(5, TimeUnit.MINUTES, ReportTier.ofType(Gauge.class)));
+ * </pre>
+ * Each metric belongs to the first tier that matches it, or else to the reporter's own period given to
+ * {@link CloudWatchReporter#start(long, TimeUnit)}. Tiers shorter than a minute are sent as CloudWatch high
+ * resolution metrics.
+ */
+public class ReportTier {
+
+    private final long periodNanos;
+    private final MetricFilter filter;
+
+    /**
+     * @param period of reports of matching metrics
+     * @param unit   of the period
+     * @param filter of metrics in this tier. Metrics are matched by their encoded name as registered.
+     */
+    public ReportTier(long period, TimeUnit unit, MetricFilter filter) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Report tier period must be positive: " + period);
+        }
+        this.periodNanos = unit.toNanos(period);
+        this.filter = filter;
+    }
+
+    public long getPeriod(TimeUnit unit) {
+        return unit.convert(periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public MetricFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return whether the tier reports often enough to be worth CloudWatch's 1 second storage resolution
+     */
+    boolean isHighResolution() {
+        return periodNanos < TimeUnit.MINUTES.toNanos(1);
+    }
+
+    long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * @param regex matched against the whole encoded metric name, e.g. <code>"Checkout.*"</code>
+     * @return a filter of metrics by name
+     */
+    public static MetricFilter nameMatches(String regex) {
+        final Pattern pattern = Pattern.compile(regex);
+        return new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return pattern.matcher(name).matches();
+            }
+        };
+    }
+
+    /**
+     * @param name  of the dimension
+     * @param value of the dimension
+     * @return a filter of metrics whose encoded name has the dimension, whether or not it is permuted
+     */
+    public static MetricFilter hasDimension(String name, String value) {
+        final String token = name + Constants.NAME_DIMENSION_SEPARATOR + value;
+        final String permutedToken = token + Constants.NAME_PERMUTE_MARKER;
+        return new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                for (String t : name.split(Constants.NAME_TOKEN_DELIMITER_RGX)) {
+                    if (t.equals(token) || t.equals(permutedToken)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param type of metric, e.g. {@link com.codahale.metrics.Gauge} or {@link com.codahale.metrics.Timer}
+     * @return a filter of metrics that are instances of the type
+     */
+    public static MetricFilter ofType(final Class<? extends Metric> type) {
+        return new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return type.isInstance(metric);
+            }
+        };
+    }
+}
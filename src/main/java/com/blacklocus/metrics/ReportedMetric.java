@@ -0,0 +1,65 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Metric;
+
+import java.util.Map;
+
+/**
+ * A registered metric as seen by a {@link CloudWatchReporter}'s {@link RegistryView}, along with reporting state
+ * resolved once rather than looked up on every report.
+ */
+class ReportedMetric<M extends Metric> implements Map.Entry<String, M> {
+
+    /**
+     * {@link #tier} of a metric whose tier is yet to be resolved.
+     */
+    static final int UNRESOLVED_TIER = -1;
+
+    final String name;
+    final M metric;
+
+    /**
+     * Parsed name including global dimensions, or null until first reported or after global dimensions change.
+     */
+    volatile DemuxedKey key;
+
+    /**
+     * Index of the reporter's tier of this metric, or {@link #UNRESOLVED_TIER}. Guarded by the reporter.
+     */
+    int tier = UNRESOLVED_TIER;
+
+    ReportedMetric(String name, M metric) {
+        this.name = name;
+        this.metric = metric;
+    }
+
+    @Override
+    public String getKey() {
+        return name;
+    }
+
+    @Override
+    public M getValue() {
+        return metric;
+    }
+
+    @Override
+    public M setValue(M value) {
+        throw new UnsupportedOperationException();
+    }
+}
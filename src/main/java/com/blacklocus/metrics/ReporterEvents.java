@@ -0,0 +1,64 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+/**
+ * Java Flight Recorder events of a {@link CloudWatchReporter}: one per report cycle and one per PutMetricData request,
+ * so that slow reports can be lined up with GC pauses and safepoints in a recording.
+ * <p>
+ * This is the version for JVMs without the <code>jdk.jfr</code> API, which records nothing. The jar is multi-release,
+ * so on Java 11 and later this class is replaced by one that emits the events while a recording enables them.
+ * Both must keep the same methods.
+ */
+final class ReporterEvents {
+
+    private ReporterEvents() {
+    }
+
+    /**
+     * @return a begun report cycle event if one is being recorded, else null
+     */
+    static Object beginReportCycle() {
+        return null;
+    }
+
+    /**
+     * @param event           from {@link #beginReportCycle()}, committed if not null
+     * @param namespace       of the report
+     * @param cycle           totals of the report
+     * @param submittedDatums datums submitted after filtering
+     * @param requests        PutMetricData requests submitted
+     */
+    static void commitReportCycle(Object event, String namespace, ReportCycle cycle, int submittedDatums, int requests) {
+    }
+
+    /**
+     * @return whether PutMetricData events are being recorded, so that their details are worth gathering
+     */
+    static boolean isPutMetricDataEnabled() {
+        return false;
+    }
+
+    /**
+     * @param namespace    of the request
+     * @param datums       in the request
+     * @param bytes        estimated size of the request
+     * @param latencyNanos from submission to completion
+     * @param failure      the exception the request failed with, or null if it succeeded
+     */
+    static void commitPutMetricData(String namespace, int datums, int bytes, long latencyNanos, Exception failure) {
+    }
+}
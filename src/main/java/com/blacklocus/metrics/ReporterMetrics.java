@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.blacklocus.metrics.Constants.NAME_DIMENSION_SEPARATOR;
+import static com.blacklocus.metrics.Constants.NAME_TOKEN_DELIMITER;
+import static com.blacklocus.metrics.Constants.VALID_DIMENSION_PART_RGX;
+
+/**
+ * A {@link CloudWatchReporter}'s measurements of itself: what each report costs, what it produces, and how
+ * PutMetricData requests fare. Updated by the reporter a few times per chunk of metrics translated and per request,
+ * with counters and timers whose writers never wait on each other, so the overhead is negligible next to the
+ * translation itself.
+ * <p>
+ * Names are encoded like any other metric, prefixed with {@value #NAME_PREFIX} and carrying the reporter's namespace
+ * as a dimension so that several reporters can share a registry.
+ * <ul>
+ * <li><b>ReportTime</b>: time of each report, from translation through handing the last request to the pipeline,
+ * once per report of however many tiers were due</li>
+ * <li><b>TranslationTime</b>: time spent translating metrics to datums per report, summed across threads when
+ * translating in parallel</li>
+ * <li><b>Metrics kind=...</b> and <b>Datums kind=...</b>: metrics translated and datums they produced per metric
+ * type, whose ratio is the fan out of permutations, global dimensions and percentiles</li>
+ * <li><b>Requests</b>: PutMetricData requests submitted by reports, not counting those sending these metrics to a
+ * namespace of their own</li>
+ * <li><b>RequestLatency</b>: latency distribution of completed PutMetricData requests</li>
+ * <li><b>FailedRequests</b>: PutMetricData requests that failed, whether or not to be retried</li>
+ * <li><b>RetriedDatums</b>, <b>DroppedDatums</b> and <b>SpooledDatums</b>: datums re-sent, given up on and written
+ * to the disk spool</li>
+ * <li><b>FoldedMetrics</b> and <b>FoldedDatums</b>: metric names reported with a dimension value beyond the
+ * dimension cardinality limit replaced, and datums merged away because of it</li>
+ * <li><b>LastReportAge</b>: milliseconds since the last report completed, which keeps growing if reports stall</li>
+ * </ul>
+ */
+class ReporterMetrics implements MetricSet {
+
+    static final String NAME_PREFIX = "CloudWatchReporter";
+
+    private final Ticker ticker = Ticker.systemTicker();
+
+    private final Timer reportTime = new StatisticSetTimer();
+    private final Timer translationTime = new StatisticSetTimer();
+    private final Counter[] metricsByKind = new Counter[CloudWatchReporter.MetricKind.values().length];
+    private final Counter[] datumsByKind = new Counter[CloudWatchReporter.MetricKind.values().length];
+    private final Counter requests = new Counter();
+    private final Timer requestLatency = new HdrHistogramTimer();
+    private final Counter failedRequests = new Counter();
+
+    private volatile long lastReportNanos;
+
+    private final Map<String, Metric> metrics;
+
+    /**
+     * @param reporter        whose retries, drops and spooling to count
+     * @param metricNamespace of the reporter, added as a dimension if it is a valid dimension value
+     */
+    ReporterMetrics(final CloudWatchReporter reporter, String metricNamespace) {
+        String suffix = metricNamespace != null && metricNamespace.matches(VALID_DIMENSION_PART_RGX)
+                ? NAME_TOKEN_DELIMITER + "namespace" + NAME_DIMENSION_SEPARATOR + metricNamespace : "";
+
+        Map<String, Metric> metrics = new TreeMap<String, Metric>();
+        metrics.put(name("ReportTime", suffix), reportTime);
+        metrics.put(name("TranslationTime", suffix), translationTime);
+        for (CloudWatchReporter.MetricKind kind : CloudWatchReporter.MetricKind.values()) {
+            String kindDimension = NAME_TOKEN_DELIMITER + "kind" + NAME_DIMENSION_SEPARATOR +
+                    kind.name().toLowerCase(Locale.ENGLISH);
+            metricsByKind[kind.ordinal()] = new Counter();
+            datumsByKind[kind.ordinal()] = new Counter();
+            metrics.put(name("Metrics", kindDimension + suffix), metricsByKind[kind.ordinal()]);
+            metrics.put(name("Datums", kindDimension + suffix), datumsByKind[kind.ordinal()]);
+        }
+        metrics.put(name("Requests", suffix), requests);
+        metrics.put(name("RequestLatency", suffix), requestLatency);
+        metrics.put(name("FailedRequests", suffix), failedRequests);
+        metrics.put(name("RetriedDatums", suffix), new DerivedCounter() {
+            @Override
+            public long getCount() {
+                return reporter.getRetriedDatumCount();
+            }
+        });
+        metrics.put(name("DroppedDatums", suffix), new DerivedCounter() {
+            @Override
+            public long getCount() {
+                return reporter.getDroppedDatumCount();
+            }
+        });
+        metrics.put(name("SpooledDatums", suffix), new DerivedCounter() {
+            @Override
+            public long getCount() {
+                return reporter.getSpooledDatumCount();
+            }
+        });
+        metrics.put(name("FoldedMetrics", suffix), new DerivedCounter() {
+            @Override
+            public long getCount() {
+                return reporter.getFoldedMetricCount();
+            }
+        });
+        metrics.put(name("FoldedDatums", suffix), new DerivedCounter() {
+            @Override
+            public long getCount() {
+                return reporter.getFoldedDatumCount();
+            }
+        });
+        lastReportNanos = ticker.read();
+        metrics.put(name("LastReportAge", suffix), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(ticker.read() - lastReportNanos);
+            }
+        });
+        this.metrics = Collections.unmodifiableMap(metrics);
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return metrics;
+    }
+
+    void translated(CloudWatchReporter.MetricKind kind, int metricCount, int datumCount) {
+        metricsByKind[kind.ordinal()].inc(metricCount);
+        datumsByKind[kind.ordinal()].inc(datumCount);
+    }
+
+    void reported(ReportCycle cycle) {
+        reportTime.update(cycle.getElapsedNanos(), TimeUnit.NANOSECONDS);
+        translationTime.update(cycle.getTranslationNanos(), TimeUnit.NANOSECONDS);
+        lastReportNanos = ticker.read();
+    }
+
+    void submitted() {
+        requests.inc();
+    }
+
+    void completed(long latencyNanos, boolean failed) {
+        requestLatency.update(latencyNanos, TimeUnit.NANOSECONDS);
+        if (failed) {
+            failedRequests.inc();
+        }
+    }
+
+    private static String name(String name, String suffix) {
+        return NAME_PREFIX + NAME_TOKEN_DELIMITER + name + suffix;
+    }
+
+    /**
+     * A counter whose count is kept elsewhere, so that the reporter sends its change per report like any counter.
+     */
+    private abstract static class DerivedCounter extends Counter {
+
+        @Override
+        public abstract long getCount();
+    }
+}
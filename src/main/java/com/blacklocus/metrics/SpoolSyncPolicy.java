@@ -0,0 +1,38 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+/**
+ * When a {@link CloudWatchReporter}'s spool forces its memory-mapped segments to disk. Anything not yet forced is
+ * still written back by the operating system on its own schedule; forcing only matters if the machine itself fails.
+ */
+public enum SpoolSyncPolicy {
+
+    /**
+     * Never force. Survives the JVM exiting or crashing, but not the machine.
+     */
+    NEVER,
+
+    /**
+     * Force each segment as it fills, and on close. Loses at most one segment to a machine failure.
+     */
+    SEGMENT,
+
+    /**
+     * Force after every spooled batch. Slowest, loses nothing once a batch is spooled.
+     */
+    BATCH
+}
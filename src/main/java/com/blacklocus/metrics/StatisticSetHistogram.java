@@ -0,0 +1,69 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.Histogram;
+
+/**
+ * A {@link Histogram} which records only what a CloudWatch {@link StatisticSet} needs: count, sum, minimum and
+ * maximum, in a {@link StatisticSetReservoir}. Updates take a spin lock private to one of its cells, moving on to
+ * another cell when that one is busy rather than waiting for it. There is none of the sampling of the default
+ * reservoirs. {@link #getSnapshot()} returns the statistics since the previous snapshot and resets them, which the
+ * {@link CloudWatchReporter} does once per report. Register it like any other metric.
+ * <pre>
+ *     StatisticSetHistogram batchSizes = metricRegistry.register("BatchSize", new StatisticSetHistogram());
+ * </pre>
+ */
+public class StatisticSetHistogram extends Histogram {
+
+    private final StatisticSetReservoir reservoir;
+
+    public StatisticSetHistogram() {
+        this(new StatisticSetReservoir());
+    }
+
+    private StatisticSetHistogram(StatisticSetReservoir reservoir) {
+        super(reservoir);
+        this.reservoir = reservoir;
+    }
+
+    @Override
+    public void update(int value) {
+        update((long) value);
+    }
+
+    @Override
+    public void update(long value) {
+        reservoir.update(value);
+    }
+
+    /**
+     * @return total number of values ever recorded
+     */
+    @Override
+    public long getCount() {
+        return reservoir.getCount();
+    }
+
+    /**
+     * @return statistics of the values recorded since the previous snapshot
+     */
+    @Override
+    public StatisticSetSnapshot getSnapshot() {
+        return reservoir.getSnapshot();
+    }
+}
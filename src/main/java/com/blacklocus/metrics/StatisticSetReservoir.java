@@ -0,0 +1,185 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link Reservoir} which keeps only the running count, sum, minimum and maximum of values since the last
+ * {@link #getSnapshot()}, which resets it. The resulting {@link StatisticSetSnapshot} maps exactly onto a CloudWatch
+ * {@link StatisticSet} for the report interval, instead of approximating one from a sliding window of samples. Give it
+ * to a metric to use it, e.g.
+ * <pre>
+ *     metricRegistry.register("Latency", new Timer(new StatisticSetReservoir()));
+ *     metricRegistry.register("BatchSize", new Histogram(new StatisticSetReservoir()));
+ * </pre>
+ * or use a {@link StatisticSetTimer} or {@link StatisticSetHistogram} which are built directly around it.
+ * <p>
+ * Each update records count, sum, minimum and maximum together in one cell, under a spin lock private to that cell.
+ * There is a single cell until writers first collide, after which each thread updates a cell of its own stripe, in the
+ * manner of a LongAdder, and moves on to the next cell rather than wait if its own is busy. Writers therefore never
+ * block on each other, only very briefly on {@link #getSnapshot()} visiting their cell.
+ * <p>
+ * Since reading resets it, a {@link Histogram} or {@link Timer} using this reservoir should be read by only one
+ * reporter.
+ */
+public class StatisticSetReservoir implements Reservoir {
+
+    /**
+     * longs per cell, so that each cell has its own 64 byte cache line.
+     */
+    private static final int CELL_PAD = 8;
+
+    // Offsets within a cell
+    private static final int LOCK = 0;
+    private static final int COUNT = 1;
+    private static final int SUM = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    // Count and sum are cumulative, so that getCount() never goes backwards. Minimum and maximum are reset by each
+    // snapshot in the same critical section that reads the count, so that every value counted in an interval is
+    // within that interval's bounds, whichever side of the snapshot its update landed on.
+    private final AtomicLongArray base = newCells(1);
+    private volatile AtomicLongArray cells;
+
+    private long lastCount = 0;
+    private long lastSum = 0;
+
+    /**
+     * @return number of values recorded since the last snapshot, saturated to an int
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(getCount() - lastCount, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(long value) {
+        AtomicLongArray cells = this.cells;
+        if (cells == null) {
+            if (tryRecord(base, 0, value)) {
+                return;
+            }
+            // Contended.
+            cells = inflate();
+        }
+        int cell = cellIndex();
+        while (!tryRecord(cells, cell, value)) {
+            cell = (cell + CELL_PAD) & (cells.length() - 1);
+        }
+    }
+
+    /**
+     * @return total number of values ever recorded
+     */
+    public long getCount() {
+        long count = base.get(COUNT);
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int cell = 0; cell < cells.length(); cell += CELL_PAD) {
+                count += cells.get(cell + COUNT);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return statistics of the values recorded since the previous snapshot
+     */
+    @Override
+    public synchronized StatisticSetSnapshot getSnapshot() {
+        long[] totals = {0, 0, Long.MAX_VALUE, Long.MIN_VALUE};
+        drain(base, 0, totals);
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int cell = 0; cell < cells.length(); cell += CELL_PAD) {
+                drain(cells, cell, totals);
+            }
+        }
+
+        StatisticSetSnapshot snapshot = new StatisticSetSnapshot(
+                totals[0] - lastCount, totals[1] - lastSum, totals[2], totals[3]);
+        lastCount = totals[0];
+        lastSum = totals[1];
+        return snapshot;
+    }
+
+    /**
+     * @return whether the value was recorded, false if the cell was busy
+     */
+    private static boolean tryRecord(AtomicLongArray cells, int cell, long value) {
+        if (!cells.compareAndSet(cell + LOCK, 0, 1)) {
+            return false;
+        }
+        // Ordered writes suffice under the lock, whose release publishes them.
+        cells.lazySet(cell + COUNT, cells.get(cell + COUNT) + 1);
+        cells.lazySet(cell + SUM, cells.get(cell + SUM) + value);
+        if (value < cells.get(cell + MIN)) {
+            cells.lazySet(cell + MIN, value);
+        }
+        if (value > cells.get(cell + MAX)) {
+            cells.lazySet(cell + MAX, value);
+        }
+        cells.lazySet(cell + LOCK, 0);
+        return true;
+    }
+
+    /**
+     * Adds the cell's cumulative count and sum and its interval minimum and maximum to the totals, and starts the
+     * cell's next interval.
+     */
+    private static void drain(AtomicLongArray cells, int cell, long[] totals) {
+        while (!cells.compareAndSet(cell + LOCK, 0, 1)) {
+            Thread.yield();
+        }
+        totals[0] += cells.get(cell + COUNT);
+        totals[1] += cells.get(cell + SUM);
+        totals[2] = Math.min(totals[2], cells.get(cell + MIN));
+        totals[3] = Math.max(totals[3], cells.get(cell + MAX));
+        cells.lazySet(cell + MIN, Long.MAX_VALUE);
+        cells.lazySet(cell + MAX, Long.MIN_VALUE);
+        cells.lazySet(cell + LOCK, 0);
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) {
+            cells = newCells(STRIPES);
+        }
+        return cells;
+    }
+
+    private static AtomicLongArray newCells(int count) {
+        AtomicLongArray cells = new AtomicLongArray(count * CELL_PAD);
+        for (int cell = 0; cell < cells.length(); cell += CELL_PAD) {
+            cells.set(cell + MIN, Long.MAX_VALUE);
+            cells.set(cell + MAX, Long.MIN_VALUE);
+        }
+        return cells;
+    }
+
+    private static int cellIndex() {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & (STRIPES - 1)) * CELL_PAD;
+    }
+}
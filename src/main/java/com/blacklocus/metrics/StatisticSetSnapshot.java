@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * A {@link Snapshot} which only knows the parts of a CloudWatch {@link StatisticSet}: sample count, sum, minimum and
+ * maximum. No individual values are retained, so {@link #getValues()} is empty and {@link #getValue(double)} can
+ * only answer the minimum at 0, the maximum at 1 and the mean in between.
+ * <p>
+ * The {@link CloudWatchReporter} submits these exactly as they are, without reading through any values.
+ */
+public class StatisticSetSnapshot extends Snapshot {
+
+    private static final long[] NO_VALUES = new long[0];
+
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+    /**
+     * @param count of values recorded
+     * @param sum   of values recorded
+     * @param min   value recorded, ignored when count is 0
+     * @param max   value recorded, ignored when count is 0
+     */
+    public StatisticSetSnapshot(long count, long sum, long min, long max) {
+        this.count = count;
+        this.sum = count == 0 ? 0 : sum;
+        this.min = count == 0 ? 0 : min;
+        this.max = count == 0 ? 0 : max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        if (quantile == 0.0) {
+            return min;
+        } else if (quantile == 1.0) {
+            return max;
+        }
+        return getMean();
+    }
+
+    @Override
+    public long[] getValues() {
+        return NO_VALUES;
+    }
+
+    /**
+     * @return {@link #getCount()}, saturated to an int
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    @Override
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * @return always 0, as individual values are not retained
+     */
+    @Override
+    public double getStdDev() {
+        return 0;
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        PrintWriter out = new PrintWriter(output);
+        try {
+            out.printf("count=%d sum=%d min=%d max=%d%n", count, sum, min, max);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Timer} which records only what a CloudWatch {@link StatisticSet} needs: count, sum, minimum and maximum
+ * durations. Each update records into one cell of a {@link StatisticSetReservoir} under that cell's spin lock, and a
+ * busy cell is skipped for another, so writers never wait on each other. There is none of the sampling of the default
+ * reservoirs, and no meter. {@link #getSnapshot()} returns the statistics since the previous snapshot and resets them,
+ * which the {@link CloudWatchReporter} does once per report. Register it like any other metric.
+ * <pre>
+ *     StatisticSetTimer latency = metricRegistry.register("Latency", new StatisticSetTimer());
+ * </pre>
+ * Rates are not tracked. The rate methods inherited from Timer always return 0.
+ */
+public class StatisticSetTimer extends Timer {
+
+    private final StatisticSetReservoir reservoir;
+    private final Clock clock;
+
+    public StatisticSetTimer() {
+        this(Clock.defaultClock());
+    }
+
+    /**
+     * @param clock used to time {@link #time()} and {@link #time(Callable)}
+     */
+    public StatisticSetTimer(Clock clock) {
+        this(new StatisticSetReservoir(), clock);
+    }
+
+    private StatisticSetTimer(StatisticSetReservoir reservoir, Clock clock) {
+        super(reservoir, clock);
+        this.reservoir = reservoir;
+        this.clock = clock;
+    }
+
+    @Override
+    public void update(long duration, TimeUnit unit) {
+        if (duration >= 0) {
+            reservoir.update(unit.toNanos(duration));
+        }
+    }
+
+    @Override
+    public <T> T time(Callable<T> event) throws Exception {
+        final long startTime = clock.getTick();
+        try {
+            return event.call();
+        } finally {
+            update(clock.getTick() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return total number of durations ever recorded
+     */
+    @Override
+    public long getCount() {
+        return reservoir.getCount();
+    }
+
+    /**
+     * @return statistics of the durations recorded since the previous snapshot, in nanoseconds
+     */
+    @Override
+    public StatisticSetSnapshot getSnapshot() {
+        return reservoir.getSnapshot();
+    }
+}
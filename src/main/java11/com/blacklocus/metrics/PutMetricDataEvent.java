@@ -0,0 +1,57 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One PutMetricData request of a {@link CloudWatchReporter}, committed as it completes.
+ */
+@Name("com.blacklocus.metrics.PutMetricData")
+@Label("CloudWatch PutMetricData")
+@Category("CloudWatch Reporter")
+@Description("One PutMetricData request of a CloudWatchReporter")
+class PutMetricDataEvent extends Event {
+
+    @Label("Namespace")
+    String namespace;
+
+    @Label("Datums")
+    int datums;
+
+    @Label("Bytes")
+    @Description("Estimated size of the request")
+    @DataAmount
+    int bytes;
+
+    @Label("Latency")
+    @Description("Time from submission to completion")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Failure")
+    @Description("The exception the request failed with")
+    String failure;
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One report of a {@link CloudWatchReporter}, from translating metrics through handing the last request to the
+ * PutMetricData pipeline.
+ */
+@Name("com.blacklocus.metrics.ReportCycle")
+@Label("CloudWatch Report Cycle")
+@Category("CloudWatch Reporter")
+@Description("One report of a CloudWatchReporter")
+class ReportCycleEvent extends Event {
+
+    @Label("Namespace")
+    String namespace;
+
+    @Label("Metrics")
+    @Description("Metrics translated to datums")
+    long metrics;
+
+    @Label("Datums")
+    @Description("Datums translated, before filtering")
+    long datums;
+
+    @Label("Submitted Datums")
+    @Description("Datums submitted to CloudWatch, after filtering")
+    long submittedDatums;
+
+    @Label("Requests")
+    @Description("PutMetricData requests submitted")
+    int requests;
+
+    @Label("Translation Time")
+    @Description("Time spent translating metrics to datums, summed across threads")
+    @Timespan(Timespan.NANOSECONDS)
+    long translationTime;
+}
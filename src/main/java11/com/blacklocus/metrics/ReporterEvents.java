@@ -0,0 +1,97 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import jdk.jfr.EventType;
+
+/**
+ * Java Flight Recorder events of a {@link CloudWatchReporter}: one per report cycle and one per PutMetricData request,
+ * so that slow reports can be lined up with GC pauses and safepoints in a recording.
+ * <p>
+ * This is the Java 11 version of the multi-release jar. Events are only created while a recording enables them, so
+ * otherwise each call is a check of a flag.
+ */
+final class ReporterEvents {
+
+    private static final EventType REPORT_CYCLE = EventType.getEventType(ReportCycleEvent.class);
+    private static final EventType PUT_METRIC_DATA = EventType.getEventType(PutMetricDataEvent.class);
+
+    private ReporterEvents() {
+    }
+
+    /**
+     * @return a begun report cycle event if one is being recorded, else null
+     */
+    static Object beginReportCycle() {
+        if (!REPORT_CYCLE.isEnabled()) {
+            return null;
+        }
+        ReportCycleEvent event = new ReportCycleEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event           from {@link #beginReportCycle()}, committed if not null
+     * @param namespace       of the report
+     * @param cycle           totals of the report
+     * @param submittedDatums datums submitted after filtering
+     * @param requests        PutMetricData requests submitted
+     */
+    static void commitReportCycle(Object event, String namespace, ReportCycle cycle, int submittedDatums, int requests) {
+        if (event == null) {
+            return;
+        }
+        ReportCycleEvent reportCycle = (ReportCycleEvent) event;
+        reportCycle.end();
+        if (reportCycle.shouldCommit()) {
+            reportCycle.namespace = namespace;
+            reportCycle.metrics = cycle.getMetrics();
+            reportCycle.datums = cycle.getDatums();
+            reportCycle.submittedDatums = submittedDatums;
+            reportCycle.requests = requests;
+            reportCycle.translationTime = cycle.getTranslationNanos();
+            reportCycle.commit();
+        }
+    }
+
+    /**
+     * @return whether PutMetricData events are being recorded, so that their details are worth gathering
+     */
+    static boolean isPutMetricDataEnabled() {
+        return PUT_METRIC_DATA.isEnabled();
+    }
+
+    /**
+     * @param namespace    of the request
+     * @param datums       in the request
+     * @param bytes        estimated size of the request
+     * @param latencyNanos from submission to completion
+     * @param failure      the exception the request failed with, or null if it succeeded
+     */
+    static void commitPutMetricData(String namespace, int datums, int bytes, long latencyNanos, Exception failure) {
+        PutMetricDataEvent event = new PutMetricDataEvent();
+        if (event.shouldCommit()) {
+            event.namespace = namespace;
+            event.datums = datums;
+            event.bytes = bytes;
+            event.latency = latencyNanos;
+            event.succeeded = failure == null;
+            event.failure = failure != null ? failure.toString() : null;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CardinalityGuardTest {
+
+    @Test
+    public void testGuard() {
+        CardinalityGuard guard = new CardinalityGuard(2);
+        String a = "Requests path=/a*";
+        Assert.assertSame(a, guard.guard(a));
+        Assert.assertSame(a, guard.guard(a));
+        Assert.assertEquals("Requests path=/b*", guard.guard("Requests path=/b*"));
+        Assert.assertEquals("Requests path=__other__*", guard.guard("Requests path=/c*"));
+        Assert.assertEquals("Requests path=__other__ machine=a", guard.guard("Requests path=/d machine=a"));
+        // Admitted values stay admitted.
+        Assert.assertEquals("Requests path=/a", guard.guard("Requests path=/a"));
+        // Limits are per metric name.
+        Assert.assertEquals("Errors path=/c", guard.guard("Errors path=/c"));
+
+        Assert.assertEquals(2, guard.getFoldedNames());
+        Assert.assertEquals(4, guard.cardinality("Requests", "path"));
+        Assert.assertEquals(1, guard.cardinality("Requests", "machine"));
+        Assert.assertEquals(0, guard.cardinality("Requests", "host"));
+    }
+
+    @Test
+    public void testHyperLogLog() {
+        HyperLogLog sketch = new HyperLogLog();
+        Assert.assertEquals(0, sketch.estimate());
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("request-" + i);
+            sketch.add("request-" + i);
+        }
+        // Standard error at 1024 registers is about 3%.
+        Assert.assertEquals(100000, sketch.estimate(), 10000);
+
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 50; i++) {
+            small.add("value-" + i);
+        }
+        Assert.assertEquals(50, small.estimate(), 3);
+    }
+
+    @Test
+    public void testRegisteredOverflowValue() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Requests path=__other__ machine=a*").inc(1);
+        registry.counter("Requests path=__other__ machine=b*").inc(2);
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withDimensionCardinalityLimit(3);
+        reporter.report();
+
+        // Nothing was folded, so the two datums without the machine dimension are sent as they are.
+        Assert.assertEquals(4, cloudWatch.delivered.size());
+        for (MetricDatum datum : cloudWatch.delivered) {
+            Assert.assertNull(datum.getStatisticValues());
+            Assert.assertNotNull(datum.getValue());
+        }
+        Assert.assertEquals(0, reporter.getFoldedMetricCount());
+        Assert.assertEquals(0, reporter.getFoldedDatumCount());
+    }
+
+    @Test
+    public void testReportFolded() {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 10; i++) {
+            registry.counter("Requests requestId=" + i).inc(i + 1);
+        }
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withDimensionCardinalityLimit(3);
+        reporter.report();
+
+        List<MetricDatum> other = new ArrayList<MetricDatum>();
+        int datums = 0;
+        double sum = 0.0;
+        for (PutMetricDataRequest request : cloudWatch.requests) {
+            for (MetricDatum datum : request.getMetricData()) {
+                Assert.assertSame("only SDK datums are sent", MetricDatum.class, datum.getClass());
+                datums++;
+                sum += datum.getValue() != null ? datum.getValue() : datum.getStatisticValues().getSum();
+                for (Dimension dimension : datum.getDimensions()) {
+                    if (Constants.DIMENSION_OVERFLOW_VALUE.equals(dimension.getValue())) {
+                        other.add(datum);
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(4, datums);
+        Assert.assertEquals(1, other.size());
+        // The 7 folded counters merged into one, nothing lost.
+        Assert.assertEquals(7, other.get(0).getStatisticValues().getSampleCount(), 0.0);
+        Assert.assertEquals(55, sum, 0.0);
+        Assert.assertEquals(7, reporter.getFoldedMetricCount());
+        Assert.assertEquals(6, reporter.getFoldedDatumCount());
+        Assert.assertEquals(10, reporter.getDimensionCardinality("Requests", "requestId"));
+    }
+}
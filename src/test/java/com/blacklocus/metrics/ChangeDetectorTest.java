@@ -0,0 +1,109 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeDetectorTest {
+
+    @Test
+    public void testGauges() {
+        FakeTicker ticker = new FakeTicker();
+        ChangeDetector detector = new ChangeDetector(60000, ticker);
+        Counter gauge = new Counter();
+
+        Assert.assertTrue(detector.gaugeDue(gauge, 1.0));
+        Assert.assertFalse(detector.gaugeDue(gauge, 1.0));
+        Assert.assertTrue(detector.gaugeDue(gauge, 2.0));
+
+        // Unchanged, but past the heartbeat since last sent
+        ticker.advance(59999);
+        Assert.assertFalse(detector.gaugeDue(gauge, 2.0));
+        ticker.advance(1);
+        Assert.assertTrue(detector.gaugeDue(gauge, 2.0));
+        Assert.assertFalse(detector.gaugeDue(gauge, 2.0));
+
+        detector.forget(gauge);
+        Assert.assertTrue(detector.gaugeDue(gauge, 2.0));
+    }
+
+    @Test
+    public void testSampling() {
+        FakeTicker ticker = new FakeTicker();
+        ChangeDetector detector = new ChangeDetector(0, ticker);
+        Timer timer = new Timer();
+
+        // Sent the first time regardless, so that idle metrics are seen at least once
+        Assert.assertTrue(detector.samplingDue(timer, false));
+        Assert.assertFalse(detector.samplingDue(timer, false));
+        Assert.assertTrue(detector.samplingDue(timer, true));
+
+        // No heartbeat
+        ticker.advance(TimeUnit.DAYS.toMillis(365));
+        Assert.assertFalse(detector.samplingDue(timer, false));
+    }
+
+    @Test
+    public void testReporter() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.register("Constant", new NumberGauge(5));
+        Timer timer = registry.timer("Latency");
+        timer.update(1, TimeUnit.MILLISECONDS);
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withChangeDetection(true);
+
+        reporter.report();
+        Assert.assertEquals(3, cloudWatch.delivered.size());
+
+        // Nothing changed
+        cloudWatch.delivered.clear();
+        reporter.report();
+        Assert.assertEquals(0, cloudWatch.delivered.size());
+
+        // The timer moved, the gauge did not
+        timer.update(2, TimeUnit.MILLISECONDS);
+        reporter.report();
+        Assert.assertEquals(2, cloudWatch.delivered.size());
+        Assert.assertEquals(Arrays.asList("Latency", "Latency"), names(cloudWatch.delivered));
+
+        // Re-registered, so a different metric under the same name
+        cloudWatch.delivered.clear();
+        registry.remove("Constant");
+        registry.register("Constant", new NumberGauge(5));
+        reporter.report();
+        Assert.assertEquals(Arrays.asList("Constant"), names(cloudWatch.delivered));
+    }
+
+    private static List<String> names(List<MetricDatum> data) {
+        List<String> names = new ArrayList<String>();
+        for (MetricDatum datum : data) {
+            names.add(datum.getMetricName());
+        }
+        return names;
+    }
+}
@@ -16,22 +16,233 @@
 package com.blacklocus.metrics;
 
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsyncClient;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.google.common.base.Functions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Jason Dunkelberger (dirkraft)
  */
 public class CloudWatchReporterTest {
 
+    @Test
+    public void testDemuxedKeyCache() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CloudWatchReporter reporter = new CloudWatchReporter(metricRegistry, "test", null);
+
+        metricRegistry.counter("TheCounter color=red");
+        reporter.report();
+        DemuxedKey key = reporter.demuxedKey("TheCounter color=red");
+        Assert.assertSame(key, reporter.demuxedKey("TheCounter color=red"));
+
+        // Dropped once the metric leaves the registry
+        metricRegistry.remove("TheCounter color=red");
+        Assert.assertNotSame(key, reporter.demuxedKey("TheCounter color=red"));
+
+        // Global dimensions are part of the cached key
+        key = reporter.demuxedKey("TheCounter color=red");
+        reporter.withDimensions("machine=localhost");
+        DemuxedKey withGlobal = reporter.demuxedKey("TheCounter color=red");
+        Assert.assertNotSame(key, withGlobal);
+        MetricDatum datum = Iterables.getOnlyElement(withGlobal.newDatums("type", "test", Functions.<MetricDatum>identity()));
+        Assert.assertEquals(3, datum.getDimensions().size());
+    }
+
+    @Test
+    public void testListensFromReportUntilStop() {
+        final AtomicInteger listeners = new AtomicInteger();
+        MetricRegistry metricRegistry = new MetricRegistry() {
+            @Override
+            public void addListener(MetricRegistryListener listener) {
+                listeners.incrementAndGet();
+                super.addListener(listener);
+            }
+
+            @Override
+            public void removeListener(MetricRegistryListener listener) {
+                listeners.decrementAndGet();
+                super.removeListener(listener);
+            }
+        };
+        CloudWatchReporter reporter = new CloudWatchReporter(metricRegistry, "test", new FakeCloudWatch(0).client());
+        Assert.assertEquals("not referenced by the registry until used", 0, listeners.get());
+
+        reporter.report();
+        reporter.report();
+        Assert.assertEquals(1, listeners.get());
+
+        reporter.stop();
+        Assert.assertEquals(0, listeners.get());
+        reporter.report();
+        Assert.assertEquals(0, listeners.get());
+    }
+
+    @Test
+    public void testReportGauge() {
+        CloudWatchReporter reporter = new CloudWatchReporter(new MetricRegistry(), "test", null);
+
+        Assert.assertEquals(3.0, reportGauge(reporter, new NumberGauge(3)).getValue(), 0.0);
+        Assert.assertEquals(4.5, reportGauge(reporter, new NumberGauge(new BigDecimal("4.5"))).getValue(), 0.0);
+        Assert.assertEquals(5.0, reportGauge(reporter, new NumberGauge(new AtomicLong(5))).getValue(), 0.0);
+        Assert.assertEquals(6.0, reportGauge(reporter, new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return "6";
+            }
+        }).getValue(), 0.0);
+        Assert.assertEquals(7.0, reportGauge(reporter, new DoubleGauge() {
+            @Override
+            public double getDoubleValue() {
+                return 7.0;
+            }
+
+            @Override
+            public Double getValue() {
+                throw new AssertionError("Should have read the primitive value");
+            }
+        }).getValue(), 0.0);
+
+        // Not reportable
+        Assert.assertNull(reportGauge(reporter, new NumberGauge(Double.NaN)));
+        Assert.assertNull(reportGauge(reporter, new NumberGauge(Double.POSITIVE_INFINITY)));
+        Assert.assertNull(reportGauge(reporter, new NumberGauge(null)));
+        Assert.assertNull(reportGauge(reporter, new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return "yellow";
+            }
+        }));
+    }
+
+    private MetricDatum reportGauge(CloudWatchReporter reporter, Gauge gauge) {
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        reporter.reportGauge(Maps.<String, Gauge>immutableEntry("TheGauge", gauge), "gauge", data);
+        return Iterables.getOnlyElement(data, null);
+    }
+
+    @Test
+    public void testReportPercentiles() {
+        final AtomicInteger snapshots = new AtomicInteger();
+        Histogram histogram = new Histogram(new UniformReservoir()) {
+            @Override
+            public Snapshot getSnapshot() {
+                snapshots.incrementAndGet();
+                return super.getSnapshot();
+            }
+        };
+        for (int i = 1; i <= 1000; i++) {
+            histogram.update(i);
+        }
+
+        CloudWatchReporter reporter = new CloudWatchReporter(new MetricRegistry(), "test", null)
+                .withPercentiles(0.5, 0.95, 0.99, 0.999);
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        reporter.reportSampling(Maps.immutableEntry("Size color=red*", histogram), "histoStats", "histoP", 1.0, data);
+
+        // Once for all of them
+        Assert.assertEquals(1, snapshots.get());
+        // Stats then each percentile, with and without the permuted dimension
+        Assert.assertEquals(10, data.size());
+        Assert.assertNotNull(data.get(0).getStatisticValues());
+        Assert.assertTrue(data.get(2).getDimensions().contains(new Dimension().withName("type").withValue("histoP50")));
+        Assert.assertEquals(500.5, data.get(2).getValue(), 0.0);
+        Assert.assertTrue(data.get(8).getDimensions().contains(new Dimension().withName("type").withValue("histoP999")));
+        Assert.assertEquals(999.999, data.get(8).getValue(), 0.0);
+
+        // Not from a StatisticSetReservoir, which knows no percentiles
+        data.clear();
+        StatisticSetHistogram statisticSetHistogram = new StatisticSetHistogram();
+        statisticSetHistogram.update(1);
+        reporter.reportSampling(Maps.immutableEntry("Size", statisticSetHistogram), "histoStats", "histoP", 1.0, data);
+        Assert.assertNotNull(Iterables.getOnlyElement(data).getStatisticValues());
+    }
+
+    @Test
+    public void testParallelTranslation() {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 100; i++) {
+            registry.register("Gauge" + i + " shard=" + (i % 3) + "*", new NumberGauge(i));
+            registry.counter("Counter" + i).inc(i);
+            registry.meter("Meter" + i).mark(i);
+            registry.histogram("Histogram" + i).update(i);
+            registry.timer("Timer" + i).update(i, TimeUnit.MILLISECONDS);
+        }
+
+        FakeCloudWatch serialCloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter serial = new CloudWatchReporter(registry, "test", serialCloudWatch.client());
+        FakeCloudWatch parallelCloudWatch = new FakeCloudWatch(0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CloudWatchReporter parallel = new CloudWatchReporter(registry, "test", parallelCloudWatch.client())
+                .withTranslationExecutor(executor)
+                .withTranslationShardSize(7);
+
+        try {
+            serial.report();
+            parallel.report();
+            Assert.assertEquals(798, serialCloudWatch.delivered.size());
+            Assert.assertEquals(serialCloudWatch.delivered, parallelCloudWatch.delivered);
+
+            // Deltas are tracked across shards just the same.
+            serialCloudWatch.delivered.clear();
+            parallelCloudWatch.delivered.clear();
+            for (int i = 0; i < 100; i += 2) {
+                registry.counter("Counter" + i).inc();
+            }
+            serial.report();
+            parallel.report();
+            Assert.assertEquals(serialCloudWatch.delivered, parallelCloudWatch.delivered);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamsWhileTranslating() {
+        final FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 1000; i++) {
+            registry.register(String.format("Gauge%04d", i), new NumberGauge(i));
+        }
+        final AtomicInteger deliveredBeforeLast = new AtomicInteger(-1);
+        registry.register("Gauge9999", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                deliveredBeforeLast.set(cloudWatch.delivered.size());
+                return 1;
+            }
+        });
+
+        new CloudWatchReporter(registry, "test", cloudWatch.client()).report();
+
+        // Earlier chunks were already submitted by the time the last gauge was read.
+        Assert.assertTrue(deliveredBeforeLast.get() >= 700);
+        Assert.assertEquals(1001, cloudWatch.delivered.size());
+        Assert.assertEquals("Gauge0000", cloudWatch.delivered.get(0).getMetricName());
+        Assert.assertEquals("Gauge9999", cloudWatch.delivered.get(1000).getMetricName());
+    }
+
     @Test
     @Ignore("ad-hoc usage")
     public void createTestData() throws InterruptedException {
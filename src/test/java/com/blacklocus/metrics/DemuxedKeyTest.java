@@ -134,6 +134,25 @@ public class DemuxedKeyTest {
         ));
     }
 
+    @Test
+    public void testTypedDimensionSets() {
+        DemuxedKey key = new DemuxedKey("Name color=green* machine=localhost");
+        Assert.assertEquals(2, key.dimensionSets.length);
+
+        Dimension[][] samples = key.typedDimensionSets(DEF_DIM_NAME_TYPE, "samples");
+        Dimension[][] stats = key.typedDimensionSets(DEF_DIM_NAME_TYPE, "stats");
+        Assert.assertSame(samples, key.typedDimensionSets(DEF_DIM_NAME_TYPE, "samples"));
+        Assert.assertSame(stats, key.typedDimensionSets(DEF_DIM_NAME_TYPE, "stats"));
+
+        List<MetricDatum> data = Lists.newArrayList(key.newDatums(DEF_DIM_NAME_TYPE, "stats", Functions.<MetricDatum>identity()));
+        Assert.assertEquals(2, data.size());
+        for (MetricDatum datum : data) {
+            // Type dimension always leads, and each datum gets its own dimension list.
+            Assert.assertEquals("stats", datum.getDimensions().get(0).getValue());
+            Assert.assertNotSame(data.get(0).getDimensions(), data.get(1).getDimensions());
+        }
+    }
+
     boolean containsExactly(List<MetricDatum> data, String... names) {
         return Sets.symmetricDifference(Sets.newHashSet(Lists.transform(data, new Function<MetricDatum, String>() {
             @Override
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.UniformReservoir;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class DistributionBucketsTest {
+
+    @Test
+    public void testCompress() {
+        Random random = new Random(42);
+        long[] samples = new long[1028];
+        long sum = 0;
+        for (int i = 0; i < samples.length; i++) {
+            // log-normal-ish latencies in nanos, from microseconds to seconds
+            samples[i] = (long) Math.exp(7 + random.nextGaussian() * 3);
+            sum += samples[i];
+        }
+        Arrays.sort(samples);
+
+        List<Double> values = new ArrayList<Double>();
+        List<Double> counts = new ArrayList<Double>();
+        DistributionBuckets.compress(samples, 0.000001, values, counts);
+
+        Assert.assertTrue(values.size() <= DistributionBuckets.MAX_VALUES);
+        Assert.assertEquals(values.size(), counts.size());
+        double compressedSum = 0;
+        double compressedCount = 0;
+        for (int i = 0; i < values.size(); i++) {
+            compressedSum += values.get(i) * counts.get(i);
+            compressedCount += counts.get(i);
+        }
+        Assert.assertEquals(samples.length, compressedCount, 0.0);
+        Assert.assertEquals(sum * 0.000001, compressedSum, sum * 0.000001 * 1e-9);
+
+        // Median from the buckets is within the bucketing error of the real median.
+        double median = samples[samples.length / 2] * 0.000001;
+        double seen = 0;
+        for (int i = 0; i < values.size(); i++) {
+            seen += counts.get(i);
+            if (seen > samples.length / 2) {
+                Assert.assertEquals(median, values.get(i), median * 0.25);
+                break;
+            }
+        }
+    }
+
+    @Test
+    public void testBucket() {
+        Assert.assertEquals(0, DistributionBuckets.bucket(0, 7));
+        Assert.assertEquals(127, DistributionBuckets.bucket(127, 7));
+        Assert.assertEquals(1000 & ~7, DistributionBuckets.bucket(1000, 7));
+        Assert.assertEquals(-(1000 & ~7), DistributionBuckets.bucket(-1000, 7));
+        Assert.assertEquals(1L << 62, DistributionBuckets.bucket(Long.MAX_VALUE, 1));
+
+        // Even the widest spread of values fits at 1 bit of precision.
+        long[] spread = new long[129];
+        for (int i = 0; i < 64; i++) {
+            spread[i] = -(1L << (63 - i)) + 1;
+            spread[65 + i] = 1L << i;
+        }
+        Arrays.sort(spread);
+        List<Double> values = new ArrayList<Double>();
+        DistributionBuckets.compress(spread, 1.0, values, new ArrayList<Double>());
+        Assert.assertTrue(values.size() <= DistributionBuckets.MAX_VALUES);
+    }
+
+    @Test
+    public void testReporterDistributions() {
+        MetricRegistry registry = new MetricRegistry();
+        com.codahale.metrics.Timer timer = registry.register("latency", new com.codahale.metrics.Timer(new UniformReservoir()));
+        for (int i = 1; i <= 1000; i++) {
+            timer.update(i, TimeUnit.MILLISECONDS);
+        }
+        registry.histogram("empty");
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withDistributions(true)
+                .report();
+
+        MetricDatum distribution = null;
+        for (MetricDatum datum : cloudWatch.delivered) {
+            if (!datum.getValues().isEmpty()) {
+                Assert.assertNull("only one distribution, the empty histogram is not sent", distribution);
+                distribution = datum;
+            }
+        }
+        Assert.assertNotNull(distribution);
+        Assert.assertNull(distribution.getStatisticValues());
+        Assert.assertTrue(distribution.getValues().size() <= DistributionBuckets.MAX_VALUES);
+        Assert.assertEquals(1.0, distribution.getValues().get(0), 0.0); // in millis
+        double count = 0;
+        for (Double c : distribution.getCounts()) {
+            count += c;
+        }
+        Assert.assertEquals(1000.0, count, 0.0);
+    }
+}
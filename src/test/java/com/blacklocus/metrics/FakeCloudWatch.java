@@ -0,0 +1,76 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.google.common.util.concurrent.Futures;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CloudWatch client that throttles the first so many requests, then accepts everything. Completes synchronously.
+ */
+class FakeCloudWatch implements InvocationHandler {
+
+    final List<MetricDatum> delivered = new ArrayList<MetricDatum>();
+    final List<PutMetricDataRequest> requests = new ArrayList<PutMetricDataRequest>();
+    int throttles;
+
+    FakeCloudWatch(int throttles) {
+        this.throttles = throttles;
+    }
+
+    AmazonCloudWatchAsync client() {
+        return (AmazonCloudWatchAsync) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{AmazonCloudWatchAsync.class}, this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().equals("putMetricDataAsync") || args.length != 2) {
+            throw new UnsupportedOperationException(method.getName());
+        }
+        PutMetricDataRequest request = (PutMetricDataRequest) args[0];
+        AsyncHandler<PutMetricDataRequest, PutMetricDataResult> handler = (AsyncHandler<PutMetricDataRequest, PutMetricDataResult>) args[1];
+        if (throttles > 0) {
+            throttles--;
+            AmazonServiceException e = throttling();
+            handler.onError(e);
+            return Futures.immediateFailedFuture(e);
+        }
+        delivered.addAll(request.getMetricData());
+        requests.add(request);
+        handler.onSuccess(request, null);
+        return Futures.immediateFuture(null);
+    }
+
+    static AmazonServiceException throttling() {
+        AmazonServiceException e = new AmazonServiceException("Throttling");
+        e.setErrorCode("Throttling");
+        e.setStatusCode(400);
+        return e;
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HdrHistogramReservoirTest {
+
+    @Test
+    public void testIntervals() {
+        HdrHistogramReservoir reservoir = new HdrHistogramReservoir(100000, 3);
+        for (int i = 1; i <= 100; i++) {
+            reservoir.update(i);
+        }
+        Assert.assertEquals(100, reservoir.size());
+
+        HdrHistogramSnapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals(5050.0, snapshot.getSum(), 0.0001);
+        Assert.assertEquals(1, snapshot.getMin());
+        Assert.assertEquals(100, snapshot.getMax());
+        Assert.assertEquals(50.0, snapshot.getMedian(), 0.0);
+        Assert.assertEquals(99.0, snapshot.get99thPercentile(), 0.0);
+        Assert.assertEquals(100, snapshot.getValues().length);
+
+        // Reset by the read, including the recycled histogram.
+        Assert.assertEquals(0, reservoir.size());
+        Assert.assertEquals(0, reservoir.getSnapshot().getCount());
+        reservoir.update(7);
+        snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(7, snapshot.getMin());
+        Assert.assertEquals(7, snapshot.getMax());
+        Assert.assertEquals(101, reservoir.getCount());
+    }
+
+    @Test
+    public void testClamped() {
+        HdrHistogramReservoir reservoir = new HdrHistogramReservoir(1000, 2);
+        reservoir.update(-5);
+        reservoir.update(1000000);
+        HdrHistogramSnapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMin());
+        Assert.assertTrue(snapshot.getMax() >= 1000);
+    }
+
+    @Test
+    public void testSnapshotOutlivesNextInterval() {
+        HdrHistogramReservoir reservoir = new HdrHistogramReservoir();
+        reservoir.update(10);
+        HdrHistogramSnapshot first = reservoir.getSnapshot();
+        reservoir.update(1000);
+        reservoir.getSnapshot();
+        reservoir.update(2000);
+        reservoir.getSnapshot();
+        Assert.assertEquals(1, first.getCount());
+        Assert.assertEquals(10, first.getMax());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final HdrHistogramHistogram histogram = new HdrHistogramHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 1; i <= 100000; i++) {
+                        histogram.update(i);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        // Swapping intervals while writers run must not lose anything.
+        long count = 0;
+        for (Future<?> future : futures) {
+            count += histogram.getSnapshot().getCount();
+            future.get();
+        }
+        executor.shutdown();
+        count += histogram.getSnapshot().getCount();
+
+        Assert.assertEquals(800000, count);
+        Assert.assertEquals(800000, histogram.getCount());
+    }
+
+    @Test
+    public void testHdrHistogramTimer() throws Exception {
+        HdrHistogramTimer timer = new HdrHistogramTimer();
+        timer.update(2, TimeUnit.MILLISECONDS);
+        timer.update(-1, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("done", timer.time(new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        }));
+
+        Assert.assertEquals(2, timer.getCount());
+        HdrHistogramSnapshot snapshot = timer.getSnapshot();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(2), snapshot.getMax(), TimeUnit.MILLISECONDS.toNanos(2) / 100);
+        Assert.assertEquals(0, timer.getSnapshot().getCount());
+    }
+
+    @Test
+    public void testReportedWithPercentiles() {
+        HdrHistogramTimer timer = new HdrHistogramTimer();
+        for (int i = 1; i <= 1000; i++) {
+            timer.update(i, TimeUnit.MILLISECONDS);
+        }
+
+        CloudWatchReporter reporter = new CloudWatchReporter(new MetricRegistry(), "test", null)
+                .withPercentiles(0.5, 0.99, 0.999);
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        reporter.reportSampling(Maps.immutableEntry("Latency", timer), "timerStats", "timerP", 0.000001, data);
+
+        Map<String, MetricDatum> byType = new HashMap<String, MetricDatum>();
+        for (MetricDatum datum : data) {
+            byType.put(typeOf(datum), datum);
+        }
+        Assert.assertEquals(4, byType.size());
+
+        StatisticSet statisticSet = byType.get("timerStats").getStatisticValues();
+        Assert.assertEquals(1000.0, statisticSet.getSampleCount(), 0.0);
+        Assert.assertEquals(500500.0, statisticSet.getSum(), 500500.0 * 0.01);
+        Assert.assertEquals(1.0, statisticSet.getMinimum(), 0.01);
+        Assert.assertEquals(1000.0, statisticSet.getMaximum(), 10.0);
+        Assert.assertEquals(500.0, byType.get("timerP50").getValue(), 5.0);
+        Assert.assertEquals(990.0, byType.get("timerP99").getValue(), 10.0);
+        Assert.assertEquals(999.0, byType.get("timerP999").getValue(), 10.0);
+
+        // Nothing since, so no percentiles of nothing.
+        data.clear();
+        reporter.reportSampling(Maps.immutableEntry("Latency", timer), "timerStats", "timerP", 0.000001, data);
+        Assert.assertEquals("timerStats", typeOf(Iterables.getOnlyElement(data)));
+    }
+
+    @Test
+    public void testReportedAsDistribution() {
+        HdrHistogramHistogram histogram = new HdrHistogramHistogram();
+        for (int i = 0; i < 100000; i++) {
+            histogram.update(i % 1000);
+        }
+
+        CloudWatchReporter reporter = new CloudWatchReporter(new MetricRegistry(), "test", null).withDistributions(true);
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        reporter.reportSampling(Maps.immutableEntry("Size", histogram), "histoStats", 1.0, data);
+
+        MetricDatum datum = Iterables.getOnlyElement(data);
+        Assert.assertTrue(datum.getValues().size() <= DistributionBuckets.MAX_VALUES);
+        double count = 0;
+        double sum = 0;
+        for (int i = 0; i < datum.getValues().size(); i++) {
+            count += datum.getCounts().get(i);
+            sum += datum.getValues().get(i) * datum.getCounts().get(i);
+        }
+        Assert.assertEquals(100000.0, count, 0.0);
+        Assert.assertEquals(100000 * 999 / 2.0, sum, 100000 * 999 / 2.0 * 0.01);
+    }
+
+    @Test
+    public void testPercentileLabel() {
+        Assert.assertEquals("50", CloudWatchReporter.percentileLabel(0.5));
+        Assert.assertEquals("99", CloudWatchReporter.percentileLabel(0.99));
+        Assert.assertEquals("999", CloudWatchReporter.percentileLabel(0.999));
+        Assert.assertEquals("100", CloudWatchReporter.percentileLabel(1.0));
+        Assert.assertEquals("0", CloudWatchReporter.percentileLabel(0.0));
+    }
+
+    private static String typeOf(MetricDatum datum) {
+        for (Dimension dimension : datum.getDimensions()) {
+            if (CloudWatchReporter.METRIC_TYPE_DIMENSION.equals(dimension.getName())) {
+                return dimension.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class IdentityLongMapTest {
+
+    @Test
+    public void testIdentity() {
+        IdentityLongMap<String> map = new IdentityLongMap<String>();
+        String key = new String("key");
+        String equalKey = new String("key");
+
+        Assert.assertEquals(0L, map.put(key, 5L));
+        Assert.assertEquals(5L, map.put(key, 7L));
+        Assert.assertFalse(map.containsKey(equalKey));
+        Assert.assertEquals(0L, map.get(equalKey));
+        Assert.assertEquals(7L, map.get(key));
+        Assert.assertEquals(1, map.size());
+
+        Assert.assertEquals(7L, map.remove(key));
+        Assert.assertEquals(0, map.size());
+        Assert.assertFalse(map.containsKey(key));
+    }
+
+    @Test
+    public void testAgainstIdentityHashMap() {
+        Random random = new Random(42);
+        List<Object> keys = new ArrayList<Object>();
+        for (int i = 0; i < 5000; i++) {
+            keys.add(new Object());
+        }
+
+        IdentityLongMap<Object> map = new IdentityLongMap<Object>();
+        Map<Object, Long> expected = new IdentityHashMap<Object, Long>();
+        for (int i = 0; i < 200000; i++) {
+            Object key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                Long removed = expected.remove(key);
+                Assert.assertEquals(removed == null ? 0L : removed, map.remove(key));
+            } else {
+                long value = random.nextLong();
+                Long previous = expected.put(key, value);
+                Assert.assertEquals(previous == null ? 0L : previous, map.put(key, value));
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        for (Object key : keys) {
+            Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+            Assert.assertEquals(expected.containsKey(key) ? expected.get(key) : 0L, map.get(key));
+        }
+    }
+}
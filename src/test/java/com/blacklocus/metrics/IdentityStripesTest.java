@@ -0,0 +1,46 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.google.common.base.Supplier;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+public class IdentityStripesTest {
+
+    @Test
+    public void testStripes() {
+        IdentityStripes<Object> stripes = new IdentityStripes<Object>(new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return new Object();
+            }
+        });
+
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (int i = 0; i < 1000; i++) {
+            String key = new String("key");
+            Assert.assertSame(stripes.of(key), stripes.of(key));
+            seen.add(stripes.of(key));
+        }
+        // Equal keys are spread by identity, over every stripe.
+        Assert.assertEquals(IdentityStripes.STRIPES, seen.size());
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class MetricDatumAggregatorTest {
+
+    @Test
+    public void testAggregate() {
+        Dimension a = new Dimension().withName("a").withValue("1");
+        Dimension b = new Dimension().withName("b").withValue("2");
+
+        List<MetricDatum> aggregated = MetricDatumAggregator.aggregate(Arrays.asList(
+                new MetricDatum().withMetricName("m").withDimensions(a, b).withValue(3.0),
+                new MetricDatum().withMetricName("m").withDimensions(b, a).withValue(1.0),
+                new MetricDatum().withMetricName("m").withDimensions(a, b).withStatisticValues(
+                        new StatisticSet().withSampleCount(2.0).withSum(10.0).withMinimum(4.0).withMaximum(6.0)),
+                new MetricDatum().withMetricName("m").withDimensions(a).withValue(5.0),
+                new MetricDatum().withMetricName("m").withDimensions(a).withValue(5.0).withUnit("Count"),
+                new MetricDatum().withMetricName("m").withDimensions(a).withValue(5.0).withTimestamp(new Date(0))
+        ));
+
+        Assert.assertEquals(4, aggregated.size());
+        MetricDatum merged = aggregated.get(0);
+        Assert.assertNull(merged.getValue());
+        Assert.assertEquals(new StatisticSet().withSampleCount(4.0).withSum(14.0).withMinimum(1.0).withMaximum(6.0),
+                merged.getStatisticValues());
+        for (MetricDatum single : aggregated.subList(1, 4)) {
+            Assert.assertEquals(5.0, single.getValue(), 0.0);
+            Assert.assertNull(single.getStatisticValues());
+        }
+    }
+
+    @Test
+    public void testAggregateDistributions() {
+        List<MetricDatum> aggregated = MetricDatumAggregator.aggregate(Arrays.asList(
+                new MetricDatum().withMetricName("m").withValues(1.0, 2.0).withCounts(3.0, 4.0),
+                new MetricDatum().withMetricName("m").withValues(2.0, 5.0),
+                new MetricDatum().withMetricName("m").withValue(2.0)
+        ));
+
+        // Distributions merge with each other, not with single values.
+        Assert.assertEquals(2, aggregated.size());
+        Assert.assertEquals(Arrays.asList(1.0, 2.0, 5.0), aggregated.get(0).getValues());
+        Assert.assertEquals(Arrays.asList(3.0, 5.0, 1.0), aggregated.get(0).getCounts());
+        Assert.assertEquals(2.0, aggregated.get(1).getValue(), 0.0);
+
+        // Not beyond what CloudWatch accepts.
+        List<Double> many = new ArrayList<Double>();
+        for (int i = 0; i < DistributionBuckets.MAX_VALUES; i++) {
+            many.add((double) i);
+        }
+        aggregated = MetricDatumAggregator.aggregate(Arrays.asList(
+                new MetricDatum().withMetricName("m").withValues(many),
+                new MetricDatum().withMetricName("m").withValues(-1.0)
+        ));
+        Assert.assertEquals(2, aggregated.size());
+    }
+
+    @Test
+    public void testSharedStatisticSetUntouched() {
+        // Permuted datums share one StatisticSet.
+        StatisticSet shared = new StatisticSet().withSampleCount(1.0).withSum(2.0).withMinimum(2.0).withMaximum(2.0);
+        MetricDatum permuted = new MetricDatum().withMetricName("other").withStatisticValues(shared);
+
+        List<MetricDatum> aggregated = MetricDatumAggregator.aggregate(Arrays.asList(
+                new MetricDatum().withMetricName("m").withStatisticValues(shared),
+                new MetricDatum().withMetricName("m").withValue(4.0),
+                permuted
+        ));
+
+        Assert.assertEquals(6.0, aggregated.get(0).getStatisticValues().getSum(), 0.0);
+        Assert.assertEquals(2.0, permuted.getStatisticValues().getSum(), 0.0);
+    }
+
+    @Test
+    public void testReporterAggregatesPermutations() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests host=a*").inc(2);
+        registry.counter("requests host=b*").inc(3);
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withAggregateDuplicates(true)
+                .report();
+
+        // host=a, host=b, and one merged datum without the host dimension instead of two
+        Assert.assertEquals(3, cloudWatch.delivered.size());
+        MetricDatum merged = null;
+        for (MetricDatum datum : cloudWatch.delivered) {
+            if (datum.getDimensions().size() == 1) {
+                merged = datum;
+            }
+        }
+        Assert.assertNotNull(merged);
+        Assert.assertEquals(2.0, merged.getStatisticValues().getSampleCount(), 0.0);
+        Assert.assertEquals(5.0, merged.getStatisticValues().getSum(), 0.0);
+    }
+}
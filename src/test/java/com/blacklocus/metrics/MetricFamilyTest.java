@@ -0,0 +1,145 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class MetricFamilyTest {
+
+    @Test
+    public void testChildren() {
+        CloudWatchCounterFamily requests = new CloudWatchCounterFamily("Requests service=web", "endpoint", "status*");
+        Counter counter = requests.get("/foo", "200");
+        Assert.assertSame(counter, requests.get("/foo", "200"));
+        Assert.assertNotSame(counter, requests.get("/foo", "500"));
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals(Arrays.asList("endpoint", "status*"), requests.getLabelNames());
+
+        ReportedMetric<Counter> child = null;
+        for (ReportedMetric<Counter> c : requests.children()) {
+            if (c.metric == counter) {
+                child = c;
+            }
+        }
+        Assert.assertNotNull(child);
+        Assert.assertEquals("Requests service=web endpoint=/foo status=200*", child.name);
+    }
+
+    @Test
+    public void testFixedArity() {
+        CloudWatchCounterFamily byEndpoint = new CloudWatchCounterFamily("Requests", "endpoint");
+        Counter counter = byEndpoint.get(new String[]{"/foo"});
+        Assert.assertSame(counter, byEndpoint.get("/foo"));
+        Assert.assertSame(counter, byEndpoint.get("/foo"));
+        Assert.assertSame(byEndpoint.get("/bar"), byEndpoint.get(new String[]{"/bar"}));
+        Assert.assertEquals(2, byEndpoint.size());
+
+        CloudWatchCounterFamily byStatus = new CloudWatchCounterFamily("Requests", "endpoint", "status*");
+        counter = byStatus.get("/foo", "200");
+        Assert.assertSame(counter, byStatus.get(new String[]{"/foo", "200"}));
+        Assert.assertSame(counter, byStatus.get("/foo", "200"));
+        Assert.assertNotSame(counter, byStatus.get("/foo", "500"));
+        Assert.assertEquals(2, byStatus.size());
+    }
+
+    @Test(expected = MetricNameBuilder.MetricsNameSyntaxException.class)
+    public void testNullLabelValue() {
+        new CloudWatchCounterFamily("Requests", "endpoint", "status").get("/foo", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("rawtypes")
+    public void testNoGaugeFamilies() {
+        new MetricFamily<Gauge>("Depth", Gauge.class, "queue") {
+            @Override
+            protected Gauge newMetric() {
+                return new NumberGauge(0);
+            }
+        };
+    }
+
+    @Test(expected = MetricNameBuilder.MetricsNameSyntaxException.class)
+    public void testInvalidLabelName() {
+        new CloudWatchCounterFamily("Requests", "end point");
+    }
+
+    @Test(expected = MetricNameBuilder.MetricsNameSyntaxException.class)
+    public void testInvalidLabelValue() {
+        new CloudWatchCounterFamily("Requests", "endpoint").get("a=b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongLabelCount() {
+        new CloudWatchCounterFamily("Requests", "endpoint", "status").get("/foo");
+    }
+
+    @Test
+    public void testReporter() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Registered").inc();
+        CloudWatchCounterFamily requests = new CloudWatchCounterFamily("Requests", "status*");
+        CloudWatchTimerFamily latency = new CloudWatchTimerFamily("Latency", "endpoint") {
+            @Override
+            protected Timer newMetric() {
+                return new StatisticSetTimer();
+            }
+        };
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .addFamily(requests)
+                .addFamily(latency);
+
+        requests.get("200").inc(3);
+        latency.get("/foo").update(5, TimeUnit.MILLISECONDS);
+        reporter.report();
+
+        // Registered counter, the permuted family counter twice, and the timer's samples and statistics
+        Assert.assertEquals(5, cloudWatch.delivered.size());
+        MetricDatum withStatus = null;
+        for (MetricDatum datum : cloudWatch.delivered) {
+            if (datum.getDimensions().contains(new Dimension().withName("status").withValue("200"))) {
+                withStatus = datum;
+            }
+        }
+        Assert.assertNotNull(withStatus);
+        Assert.assertEquals("Requests", withStatus.getMetricName());
+        Assert.assertEquals(3.0, withStatus.getValue(), 0.0);
+
+        // Counts are diffed per child, like any counter
+        cloudWatch.delivered.clear();
+        requests.get("200").inc();
+        reporter.report();
+        Assert.assertEquals(2, cloudWatch.delivered.size());
+        Assert.assertEquals(1.0, cloudWatch.delivered.get(0).getValue(), 0.0);
+
+        cloudWatch.delivered.clear();
+        reporter.removeFamily(requests);
+        requests.get("200").inc();
+        reporter.report();
+        Assert.assertTrue(cloudWatch.delivered.isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class NumberGaugeTest {
+
+    @Test
+    public void testLongModes() {
+        LongNumberGauge add = new LongNumberGauge(GaugeUpdateMode.ADD, 10L, false);
+        add.update(5);
+        add.update(-2);
+        Assert.assertEquals(13L, add.getLongValue());
+
+        LongNumberGauge min = new LongNumberGauge(GaugeUpdateMode.MIN, Long.MAX_VALUE, false);
+        min.update(5);
+        min.update(9);
+        Assert.assertEquals(5L, min.getLongValue());
+
+        LongNumberGauge set = new LongNumberGauge();
+        set.update(5);
+        set.update(3);
+        Assert.assertEquals(Long.valueOf(3), set.getValue());
+    }
+
+    @Test
+    public void testDoubleModes() {
+        DoubleNumberGauge add = new DoubleNumberGauge(GaugeUpdateMode.ADD, 0.5, false);
+        add.update(1.25);
+        Assert.assertEquals(1.75, add.getDoubleValue(), 0.0);
+
+        DoubleNumberGauge max = new DoubleNumberGauge(GaugeUpdateMode.MAX, -1.0, false);
+        max.update(-3.0);
+        Assert.assertEquals(-1.0, max.getDoubleValue(), 0.0);
+        max.update(2.5);
+        Assert.assertEquals(2.5, max.getDoubleValue(), 0.0);
+    }
+
+    @Test
+    public void testHighWatermarkResetsOnReport() {
+        CloudWatchReporter reporter = new CloudWatchReporter(new MetricRegistry(), "test", null);
+
+        LongNumberGauge longMax = LongNumberGauge.highWatermark();
+        longMax.update(3);
+        longMax.update(7);
+        longMax.update(4);
+        Assert.assertEquals(7.0, report(reporter, longMax), 0.0);
+        Assert.assertEquals(0.0, report(reporter, longMax), 0.0);
+
+        DoubleNumberGauge doubleMax = DoubleNumberGauge.highWatermark();
+        doubleMax.update(1.5);
+        Assert.assertEquals(1.5, report(reporter, doubleMax), 0.0);
+        Assert.assertEquals(0.0, report(reporter, doubleMax), 0.0);
+
+        // Not resetting unless asked
+        LongNumberGauge plain = new LongNumberGauge(2);
+        Assert.assertEquals(2.0, report(reporter, plain), 0.0);
+        Assert.assertEquals(2.0, report(reporter, plain), 0.0);
+    }
+
+    private double report(CloudWatchReporter reporter, Gauge gauge) {
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        reporter.reportGauge(Maps.<String, Gauge>immutableEntry("TheGauge", gauge), "gauge", data);
+        return Iterables.getOnlyElement(data).getValue();
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.amazonaws.services.cloudwatch.model.transform.PutMetricDataRequestMarshaller;
+import com.amazonaws.util.SdkHttpUtils;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class PutMetricDataBatcherTest {
+
+    @Test
+    public void testEstimateNeverLow() {
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        for (int i = 0; i < 150; i++) {
+            data.add(new MetricDatum()
+                    .withMetricName("Requests/" + i + " \u00e9\u4e2d")
+                    .withDimensions(
+                            new Dimension().withName("host").withValue("10.0.0." + i),
+                            new Dimension().withName("metricType").withValue("timerStats"))
+                    .withTimestamp(new Date())
+                    .withUnit(StandardUnit.Milliseconds)
+                    .withStatisticValues(new StatisticSet()
+                            .withSampleCount((double) i).withSum(-1.2345678901234567E-30 * i)
+                            .withMinimum(Double.MIN_VALUE).withMaximum(Double.MAX_VALUE)));
+            data.add(new MetricDatum().withMetricName("Count").withValue(Math.PI * i));
+            data.add(new MetricDatum().withMetricName("Distribution").withStorageResolution(1)
+                    .withValues(Math.E * i, -Math.E * i, 0.1).withCounts(1.0, 20.0, 300.0));
+        }
+        PutMetricDataRequest request = new PutMetricDataRequest().withNamespace("Test Namespace").withMetricData(data);
+
+        int estimate = PutMetricDataBatcher.estimateRequestBytes(request);
+        int actual = SdkHttpUtils.encodeParameters(new PutMetricDataRequestMarshaller().marshall(request)).length();
+        Assert.assertTrue(estimate + " < " + actual, estimate >= actual);
+        Assert.assertTrue("estimate should be close, " + estimate + " vs " + actual, estimate < actual * 1.25);
+    }
+
+    @Test
+    public void testPacker() {
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        for (int i = 0; i < 45; i++) {
+            data.add(new MetricDatum().withMetricName("m" + i).withValue(1.0));
+        }
+
+        List<List<MetricDatum>> byCount = pack(new PutMetricDataBatcher(20, Integer.MAX_VALUE), data);
+        Assert.assertEquals(3, byCount.size());
+        Assert.assertEquals(20, byCount.get(0).size());
+        Assert.assertEquals(5, byCount.get(2).size());
+
+        // Room for roughly ten of these datums per request.
+        int tenDatums = 10 * PutMetricDataBatcher.estimateBytes(data.get(0), 10) + 100;
+        PutMetricDataBatcher bySize = new PutMetricDataBatcher(1000, tenDatums);
+        List<List<MetricDatum>> batches = pack(bySize, data);
+        Assert.assertTrue(batches.size() >= 5);
+        int total = 0;
+        for (List<MetricDatum> batch : batches) {
+            Assert.assertTrue(PutMetricDataBatcher.estimateRequestBytes(
+                    new PutMetricDataRequest().withNamespace("ns").withMetricData(batch)) <= tenDatums);
+            total += batch.size();
+        }
+        Assert.assertEquals(45, total);
+
+        // Too large on its own, but still sent rather than lost.
+        List<List<MetricDatum>> tooLarge = pack(new PutMetricDataBatcher(1000, 10), data.subList(0, 2));
+        Assert.assertEquals(2, tooLarge.size());
+
+        // Empty once finished.
+        PutMetricDataBatcher.Packer packer = new PutMetricDataBatcher(20, Integer.MAX_VALUE).packer("ns");
+        Assert.assertNull(packer.add(data.get(0)));
+        Assert.assertEquals(1, packer.finish().size());
+        Assert.assertNull(packer.finish());
+    }
+
+    /**
+     * @return the batches of the data, as the reporter packs them one datum at a time
+     */
+    static List<List<MetricDatum>> pack(PutMetricDataBatcher batcher, List<MetricDatum> data) {
+        List<List<MetricDatum>> batches = new ArrayList<List<MetricDatum>>();
+        PutMetricDataBatcher.Packer packer = batcher.packer("ns");
+        for (MetricDatum datum : data) {
+            List<MetricDatum> batch = packer.add(datum);
+            if (batch != null) {
+                batches.add(batch);
+            }
+        }
+        List<MetricDatum> batch = packer.finish();
+        if (batch != null) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    @Test
+    public void testReporterBatchSizes() {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 45; i++) {
+            registry.counter("counter" + i).inc();
+        }
+
+        RequestCountingCloudWatch legacy = new RequestCountingCloudWatch();
+        new CloudWatchReporter(registry, "test", legacy.client()).report();
+        Assert.assertEquals(3, legacy.requests);
+
+        RequestCountingCloudWatch packed = new RequestCountingCloudWatch();
+        new CloudWatchReporterBuilder().withNamespace("test").withRegistry(registry).withClient(packed.client())
+                .build().report();
+        Assert.assertEquals(1, packed.requests);
+    }
+
+    static class RequestCountingCloudWatch extends FakeCloudWatch {
+        int requests = 0;
+
+        RequestCountingCloudWatch() {
+            super(0);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            requests++;
+            return super.invoke(proxy, method, args);
+        }
+    }
+}
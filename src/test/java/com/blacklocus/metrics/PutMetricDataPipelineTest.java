@@ -0,0 +1,170 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class PutMetricDataPipelineTest {
+
+    @Test
+    public void testWindow() throws Exception {
+        HeldCloudWatch held = new HeldCloudWatch();
+        RecordingListener listener = new RecordingListener();
+        final PutMetricDataPipeline pipeline = new PutMetricDataPipeline(held.client(), 2, 60000L, listener);
+
+        pipeline.submit(new PutMetricDataRequest());
+        pipeline.submit(new PutMetricDataRequest());
+        Assert.assertEquals(2, pipeline.inFlightCount());
+
+        Thread third = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.submit(new PutMetricDataRequest());
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        third.start();
+        third.join(300);
+        Assert.assertTrue("window is full, third submission should be waiting", third.isAlive());
+        Assert.assertEquals(2, held.handlers.size());
+
+        held.succeed(0);
+        third.join(5000);
+        Assert.assertFalse(third.isAlive());
+        Assert.assertEquals(3, held.handlers.size());
+        Assert.assertEquals(1, listener.successes.size());
+
+        held.succeed(1);
+        held.fail(2, new RuntimeException("throttled"));
+        Assert.assertTrue(pipeline.awaitCompletion(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, pipeline.inFlightCount());
+        Assert.assertEquals(2, listener.successes.size());
+        Assert.assertEquals(1, listener.failures.size());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        HeldCloudWatch held = new HeldCloudWatch();
+        RecordingListener listener = new RecordingListener();
+        PutMetricDataPipeline pipeline = new PutMetricDataPipeline(held.client(), 1, 50L, listener);
+
+        pipeline.submit(new PutMetricDataRequest());
+        Assert.assertFalse(pipeline.awaitCompletion(10, TimeUnit.MILLISECONDS));
+
+        // Waiting for room expires the stuck request.
+        pipeline.submit(new PutMetricDataRequest());
+        Assert.assertEquals(1, listener.failures.size());
+        Assert.assertTrue(listener.failures.get(0) instanceof TimeoutException);
+        Assert.assertTrue(held.futures.get(0).isCancelled());
+
+        // A late response to the expired request is not counted again.
+        held.succeed(0);
+        Assert.assertEquals(0, listener.successes.size());
+        Assert.assertEquals(1, pipeline.inFlightCount());
+
+        held.succeed(1);
+        Assert.assertTrue(pipeline.awaitCompletion(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, listener.successes.size());
+    }
+
+    @Test
+    public void testSynchronousFailure() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        AmazonCloudWatchAsync broken = (AmazonCloudWatchAsync) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{AmazonCloudWatchAsync.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        throw new IllegalStateException("client shut down");
+                    }
+                });
+        PutMetricDataPipeline pipeline = new PutMetricDataPipeline(broken, 1, 60000L, listener);
+
+        pipeline.submit(new PutMetricDataRequest());
+        pipeline.submit(new PutMetricDataRequest());
+        Assert.assertEquals(2, listener.failures.size());
+        Assert.assertEquals(0, pipeline.inFlightCount());
+    }
+
+    /**
+     * Holds every request until the test completes it.
+     */
+    static class HeldCloudWatch implements InvocationHandler {
+
+        final List<AsyncHandler<PutMetricDataRequest, PutMetricDataResult>> handlers =
+                new CopyOnWriteArrayList<AsyncHandler<PutMetricDataRequest, PutMetricDataResult>>();
+        final List<SettableFuture<PutMetricDataResult>> futures = new CopyOnWriteArrayList<SettableFuture<PutMetricDataResult>>();
+
+        AmazonCloudWatchAsync client() {
+            return (AmazonCloudWatchAsync) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class[]{AmazonCloudWatchAsync.class}, this);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().equals("putMetricDataAsync") || args.length != 2) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            SettableFuture<PutMetricDataResult> future = SettableFuture.create();
+            futures.add(future);
+            handlers.add((AsyncHandler<PutMetricDataRequest, PutMetricDataResult>) args[1]);
+            return future;
+        }
+
+        void succeed(int i) {
+            futures.get(i).set(null);
+            handlers.get(i).onSuccess(null, null);
+        }
+
+        void fail(int i, Exception e) {
+            futures.get(i).setException(e);
+            handlers.get(i).onError(e);
+        }
+    }
+
+    static class RecordingListener implements PutMetricDataPipeline.Listener {
+
+        final List<PutMetricDataRequest> successes = new CopyOnWriteArrayList<PutMetricDataRequest>();
+        final List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+
+        @Override
+        public void onSuccess(PutMetricDataRequest request, long latencyNanos) {
+            successes.add(request);
+        }
+
+        @Override
+        public void onFailure(PutMetricDataRequest request, Exception exception, long latencyNanos) {
+            failures.add(exception);
+        }
+    }
+}
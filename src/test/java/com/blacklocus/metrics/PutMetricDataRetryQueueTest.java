@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+public class PutMetricDataRetryQueueTest {
+
+    @Test
+    public void testRetryable() {
+        Assert.assertTrue(PutMetricDataRetryQueue.isRetryable(throttling()));
+        Assert.assertTrue(PutMetricDataRetryQueue.isRetryable(serviceException("InternalFailure", 500)));
+        Assert.assertTrue(PutMetricDataRetryQueue.isRetryable(new AmazonClientException("connection reset")));
+        Assert.assertTrue(PutMetricDataRetryQueue.isRetryable(new TimeoutException()));
+        Assert.assertFalse(PutMetricDataRetryQueue.isRetryable(serviceException("InvalidParameterValue", 400)));
+        Assert.assertFalse(PutMetricDataRetryQueue.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    public void testBackoff() {
+        FakeTicker ticker = new FakeTicker();
+        PutMetricDataRetryQueue queue = new PutMetricDataRetryQueue(100, 3, 1000L, ticker, null);
+
+        PutMetricDataRequest request = request(5);
+        Assert.assertTrue(queue.offer(request, throttling(), 0));
+        Assert.assertEquals(5, queue.getQueuedDatums());
+        for (MetricDatum datum : request.getMetricData()) {
+            Assert.assertNotNull("spilled data is stamped with its original time", datum.getTimestamp());
+        }
+
+        // Full jitter never waits longer than the backoff.
+        ticker.advance(1000);
+        Assert.assertEquals(Collections.singletonList(request), queue.poll());
+        Assert.assertTrue(queue.poll().isEmpty());
+        Assert.assertEquals(0, queue.getQueuedDatums());
+        Assert.assertEquals(5, queue.getRetriedDatums());
+
+        // Second failure backs off up to twice as long; third is out of attempts.
+        Assert.assertTrue(queue.offer(request, throttling(), 0));
+        ticker.advance(2000);
+        Assert.assertEquals(Collections.singletonList(request), queue.poll());
+        Assert.assertFalse(queue.offer(request, throttling(), 0));
+        Assert.assertEquals(5, queue.getDroppedDatums());
+    }
+
+    @Test
+    public void testEvictsOldest() {
+        FakeTicker ticker = new FakeTicker();
+        PutMetricDataRetryQueue queue = new PutMetricDataRetryQueue(10, 5, 0L, ticker, null);
+
+        PutMetricDataRequest oldest = request(4);
+        PutMetricDataRequest middle = request(4);
+        PutMetricDataRequest newest = request(4);
+        queue.offer(oldest, throttling(), 0);
+        queue.offer(middle, throttling(), 0);
+        queue.offer(newest, throttling(), 0);
+
+        Assert.assertEquals(8, queue.getQueuedDatums());
+        Assert.assertEquals(4, queue.getDroppedDatums());
+        Assert.assertEquals(Arrays.asList(middle, newest), queue.poll());
+
+        Assert.assertFalse("not retryable", queue.offer(request(1), serviceException("InvalidParameterValue", 400), 0));
+        Assert.assertEquals(5, queue.getDroppedDatums());
+    }
+
+    @Test
+    public void testReporterRetriesThrottled() {
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(2);
+        MetricRegistry registry = new MetricRegistry();
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withRetryBackoffMillis(0L);
+
+        for (int i = 0; i < 30; i++) {
+            registry.counter("counter" + i).inc();
+        }
+
+        // Both requests of the first report are throttled and spilled.
+        reporter.report();
+        Assert.assertEquals(0, cloudWatch.delivered.size());
+        Assert.assertEquals(0, reporter.getDroppedDatumCount());
+
+        // The next report re-sends them along with its own data.
+        for (int i = 0; i < 30; i++) {
+            registry.counter("counter" + i).inc();
+        }
+        reporter.report();
+        Assert.assertEquals(60, cloudWatch.delivered.size());
+        Assert.assertEquals(30, reporter.getRetriedDatumCount());
+        Assert.assertEquals(0, reporter.getDroppedDatumCount());
+        Assert.assertNotNull("retried data keeps the time of its first attempt",
+                cloudWatch.delivered.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testReporterDropsWhenFull() {
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(Integer.MAX_VALUE);
+        MetricRegistry registry = new MetricRegistry();
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withRetryBackoffMillis(0L)
+                .withRetryQueueMaxDatums(20)
+                .withRetryMaxAttempts(Integer.MAX_VALUE);
+
+        for (int i = 0; i < 30; i++) {
+            registry.counter("counter" + i).inc();
+        }
+
+        // The first request of 20 is evicted to make room for the second of 10.
+        reporter.report();
+        Assert.assertEquals(20, reporter.getDroppedDatumCount());
+
+        // The earlier 10 fail again, then all but the newest 10 of everything is evicted.
+        for (int i = 0; i < 30; i++) {
+            registry.counter("counter" + i).inc();
+        }
+        reporter.report();
+        Assert.assertEquals(60 - 10, reporter.getDroppedDatumCount());
+        Assert.assertEquals(0, cloudWatch.delivered.size());
+    }
+
+    static PutMetricDataRequest request(int size) {
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        for (int i = 0; i < size; i++) {
+            data.add(new MetricDatum().withMetricName("m" + i).withValue(1.0));
+        }
+        return new PutMetricDataRequest().withNamespace("test").withMetricData(data);
+    }
+
+    static AmazonServiceException throttling() {
+        return FakeCloudWatch.throttling();
+    }
+
+    static AmazonServiceException serviceException(String errorCode, int statusCode) {
+        AmazonServiceException e = new AmazonServiceException(errorCode);
+        e.setErrorCode(errorCode);
+        e.setStatusCode(statusCode);
+        return e;
+    }
+}
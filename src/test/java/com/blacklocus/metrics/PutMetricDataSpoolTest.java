@@ -0,0 +1,195 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+public class PutMetricDataSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCodec() throws Exception {
+        PutMetricDataRequest request = new PutMetricDataRequest().withNamespace("ns").withMetricData(
+                new MetricDatum().withMetricName("a").withValue(1.5).withUnit(StandardUnit.Count)
+                        .withTimestamp(new Date(1234567890L))
+                        .withDimensions(new Dimension().withName("k").withValue("v")),
+                new MetricDatum().withMetricName("b").withStatisticValues(
+                        new StatisticSet().withSampleCount(3.0).withSum(6.0).withMinimum(1.0).withMaximum(3.0)),
+                new MetricDatum().withMetricName("c"),
+                new MetricDatum().withMetricName("d").withValues(1.0, 2.5).withCounts(3.0, 1.0),
+                new MetricDatum().withMetricName("e").withValue(2.0).withStorageResolution(1)
+        );
+        Assert.assertEquals(request, PutMetricDataCodec.decode(PutMetricDataCodec.encode(request)));
+    }
+
+    @Test
+    public void testReplaysOnceAcrossRestarts() throws Exception {
+        File dir = folder.newFolder();
+        PutMetricDataSpool spool = new PutMetricDataSpool(dir, 1024, 1024 * 1024, SpoolSyncPolicy.BATCH);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(spool.append(PutMetricDataRetryQueueTest.request(3)));
+        }
+        Assert.assertEquals(15, spool.getSpooledDatums());
+        Assert.assertNotNull("unstamped data is stamped when spooled",
+                spool.poll().getMetricData().get(0).getTimestamp());
+        spool.close();
+
+        // The first was replayed before the restart. Appending after restarting goes to a new segment.
+        spool = new PutMetricDataSpool(dir, 1024, 1024 * 1024, SpoolSyncPolicy.BATCH);
+        spool.append(PutMetricDataRetryQueueTest.request(1));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(3, spool.poll().getMetricData().size());
+        }
+        Assert.assertEquals(1, spool.poll().getMetricData().size());
+        Assert.assertNull(spool.poll());
+        Assert.assertEquals(1, dir.list().length); // replayed segments are deleted, the active one remains
+    }
+
+    @Test
+    public void testTornAppend() throws Exception {
+        File dir = folder.newFolder();
+        PutMetricDataSpool spool = new PutMetricDataSpool(dir, 1024, 1024 * 1024, SpoolSyncPolicy.BATCH);
+        spool.append(PutMetricDataRetryQueueTest.request(1));
+        spool.append(PutMetricDataRetryQueueTest.request(2));
+        spool.close();
+
+        // Corrupt the last byte of the second record's payload.
+        File segment = dir.listFiles()[0];
+        int firstLength = PutMetricDataCodec.encode(PutMetricDataRetryQueueTest.request(1)).length;
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            long secondRecord = PutMetricDataSpool.SEGMENT_HEADER_BYTES + PutMetricDataSpool.RECORD_HEADER_BYTES + firstLength;
+            raf.seek(secondRecord);
+            int secondLength = raf.readInt();
+            long lastByte = secondRecord + PutMetricDataSpool.RECORD_HEADER_BYTES + secondLength - 1;
+            raf.seek(lastByte);
+            int original = raf.read();
+            raf.seek(lastByte);
+            raf.write(~original);
+        } finally {
+            raf.close();
+        }
+
+        spool = new PutMetricDataSpool(dir, 1024, 1024 * 1024, SpoolSyncPolicy.BATCH);
+        Assert.assertEquals(1, spool.poll().getMetricData().size());
+        Assert.assertNull(spool.poll());
+    }
+
+    @Test
+    public void testSizeCap() throws Exception {
+        File dir = folder.newFolder();
+        int recordBytes = PutMetricDataSpool.RECORD_HEADER_BYTES
+                + PutMetricDataCodec.encode(stamped(PutMetricDataRetryQueueTest.request(2))).length;
+        // Two records per segment, two segments.
+        int segmentBytes = PutMetricDataSpool.SEGMENT_HEADER_BYTES + 2 * recordBytes;
+        PutMetricDataSpool spool = new PutMetricDataSpool(dir, segmentBytes, 2 * segmentBytes, SpoolSyncPolicy.NEVER);
+
+        for (int i = 0; i < 5; i++) {
+            spool.append(stamped(PutMetricDataRetryQueueTest.request(2)));
+        }
+        Assert.assertEquals(2, dir.list().length);
+        Assert.assertEquals(4, spool.getDroppedDatums());
+
+        int replayed = 0;
+        while (spool.poll() != null) {
+            replayed++;
+        }
+        Assert.assertEquals(3, replayed);
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        PutMetricDataSpool spool = new PutMetricDataSpool(folder.newFolder(), 1024, 1024 * 1024, SpoolSyncPolicy.NEVER);
+        Date old = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(15));
+        Date recent = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        spool.append(new PutMetricDataRequest().withMetricData(
+                new MetricDatum().withMetricName("old").withValue(1.0).withTimestamp(old),
+                new MetricDatum().withMetricName("recent").withValue(1.0).withTimestamp(recent)));
+        spool.append(new PutMetricDataRequest().withMetricData(
+                new MetricDatum().withMetricName("old").withValue(1.0).withTimestamp(old)));
+
+        PutMetricDataRequest replay = spool.poll();
+        Assert.assertEquals(1, replay.getMetricData().size());
+        Assert.assertEquals("recent", replay.getMetricData().get(0).getMetricName());
+        Assert.assertNull(spool.poll());
+        Assert.assertEquals(2, spool.getExpiredDatums());
+    }
+
+    @Test
+    public void testReporterSpoolsThroughOutage() throws Exception {
+        File dir = folder.newFolder();
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 30; i++) {
+            registry.counter("counter" + i).inc();
+        }
+
+        // CloudWatch is down for the whole life of the first reporter.
+        FakeCloudWatch down =
+                new FakeCloudWatch(Integer.MAX_VALUE);
+        CloudWatchReporter reporter = new CloudWatchReporterBuilder()
+                .withNamespace("test")
+                .withRegistry(registry)
+                .withClient(down.client())
+                .withRetryBackoffMillis(0L)
+                .withRetryMaxAttempts(2)
+                .withSpoolDirectory(dir)
+                .build();
+        reporter.report();
+        reporter.report(); // retries fail, out of attempts, spooled
+        Assert.assertEquals(30, reporter.getSpooledDatumCount());
+        reporter.stop();
+
+        // After a restart, spooled data is replayed once a request gets through.
+        FakeCloudWatch up = new FakeCloudWatch(0);
+        reporter = new CloudWatchReporterBuilder()
+                .withNamespace("test")
+                .withRegistry(registry)
+                .withClient(up.client())
+                .withSpoolDirectory(dir)
+                .build();
+        reporter.report();
+        Assert.assertEquals(30, up.delivered.size());
+        registry.counter("counter0").inc();
+        reporter.report();
+        Assert.assertEquals(30 + 30 + 1, up.delivered.size());
+        Assert.assertEquals(0, reporter.getDroppedDatumCount());
+        reporter.stop();
+    }
+
+    static PutMetricDataRequest stamped(PutMetricDataRequest request) {
+        for (MetricDatum datum : request.getMetricData()) {
+            datum.setTimestamp(new Date());
+        }
+        return request;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Iterables;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RegistryViewTest {
+
+    @Test
+    public void testView() {
+        RegistryView view = new RegistryView(new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return !name.startsWith("Hidden");
+            }
+        });
+        view.addCounter("b", new Counter());
+        view.addCounter("a", new Counter());
+        view.addCounter("Hidden", new Counter());
+        view.addTimer("c", new Timer());
+
+        Assert.assertEquals(Arrays.asList("a", "b"), names(view.counters()));
+        Assert.assertEquals(Arrays.asList("c"), names(view.timers()));
+
+        Counter a = Iterables.getFirst(view.counters(), null).metric;
+        Assert.assertSame(a, view.remove("a"));
+        view.remove("c");
+        Assert.assertNull(view.remove("absent"));
+        Assert.assertEquals(Arrays.asList("b"), names(view.counters()));
+        Assert.assertTrue(Iterables.isEmpty(view.timers()));
+    }
+
+    @Test
+    public void testReporterReadsView() {
+        MetricRegistry registry = new MetricRegistry() {
+            @Override
+            public SortedMap<String, Gauge> getGauges(MetricFilter filter) {
+                throw new AssertionError("Reports should not rebuild maps from the registry");
+            }
+
+            @Override
+            public SortedMap<String, Counter> getCounters(MetricFilter filter) {
+                throw new AssertionError("Reports should not rebuild maps from the registry");
+            }
+        };
+        registry.counter("Before").inc();
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return !name.startsWith("Hidden");
+            }
+        }, cloudWatch.client());
+        registry.counter("After").inc();
+        registry.counter("Hidden").inc();
+
+        reporter.report();
+        Assert.assertEquals(Arrays.asList("After", "Before"), datumNames(cloudWatch.delivered));
+
+        // Removed, then re-registered as a new metric with its count from scratch
+        cloudWatch.delivered.clear();
+        registry.remove("Before");
+        reporter.report();
+        Assert.assertTrue(cloudWatch.delivered.isEmpty());
+        registry.counter("Before").inc();
+        reporter.report();
+        Assert.assertEquals(Arrays.asList("Before"), datumNames(cloudWatch.delivered));
+
+        // Parsed names are kept until the global dimensions change
+        cloudWatch.delivered.clear();
+        reporter.withDimensions("env=test");
+        registry.counter("Before").inc();
+        reporter.report();
+        Assert.assertEquals(Arrays.asList(new Dimension().withName("env").withValue("test")),
+                dimensionsExceptType(cloudWatch.delivered.get(0)));
+    }
+
+    @Test
+    public void testFilterAppliedEachReport() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Requests").inc();
+        final AtomicBoolean enabled = new AtomicBoolean(false);
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return enabled.get();
+            }
+        }, cloudWatch.client());
+
+        reporter.report();
+        Assert.assertTrue(cloudWatch.delivered.isEmpty());
+
+        // A filter may change its mind after the metric was registered.
+        enabled.set(true);
+        reporter.report();
+        Assert.assertEquals(Arrays.asList("Requests"), datumNames(cloudWatch.delivered));
+    }
+
+    private static List<String> names(Iterable<? extends ReportedMetric<?>> metrics) {
+        List<String> names = new ArrayList<String>();
+        for (ReportedMetric<?> metric : metrics) {
+            names.add(metric.name);
+        }
+        return names;
+    }
+
+    private static List<String> datumNames(List<MetricDatum> data) {
+        List<String> names = new ArrayList<String>();
+        for (MetricDatum datum : data) {
+            names.add(datum.getMetricName());
+        }
+        return names;
+    }
+
+    private static List<Dimension> dimensionsExceptType(MetricDatum datum) {
+        List<Dimension> dimensions = new ArrayList<Dimension>();
+        for (Dimension dimension : datum.getDimensions()) {
+            if (!CloudWatchReporter.METRIC_TYPE_DIMENSION.equals(dimension.getName())) {
+                dimensions.add(dimension);
+            }
+        }
+        return dimensions;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+public class ReportTierTest {
+
+    @Test
+    public void testFilters() {
+        Counter counter = new Counter();
+        Assert.assertTrue(ReportTier.nameMatches("Checkout.*").matches("Checkout service=web", counter));
+        Assert.assertFalse(ReportTier.nameMatches("Checkout").matches("Checkout service=web", counter));
+
+        Assert.assertTrue(ReportTier.hasDimension("service", "web").matches("Checkout service=web", counter));
+        Assert.assertTrue(ReportTier.hasDimension("service", "web").matches("Checkout service=web*", counter));
+        Assert.assertFalse(ReportTier.hasDimension("service", "we").matches("Checkout service=web", counter));
+
+        Assert.assertTrue(ReportTier.ofType(Counter.class).matches("Checkout", counter));
+        Assert.assertFalse(ReportTier.ofType(Gauge.class).matches("Checkout", counter));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositivePeriod() {
+        new ReportTier(0, TimeUnit.SECONDS, ReportTier.nameMatches(".*"));
+    }
+
+    @Test
+    public void testTiers() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Checkout").inc();
+        registry.register("Heap", new NumberGauge(5));
+        registry.counter("Other").inc();
+
+        FakeTicker ticker = new FakeTicker();
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withTiers(
+                        new ReportTier(10, TimeUnit.SECONDS, ReportTier.nameMatches("Checkout")),
+                        new ReportTier(5, TimeUnit.MINUTES, ReportTier.ofType(Gauge.class)));
+        reporter.ticker = ticker;
+        // Ticks every 10 seconds, the first of which is a tick away. Reports are driven by hand below.
+        reporter.start(1, TimeUnit.MINUTES);
+        try {
+            reporter.report();
+            Assert.assertEquals(set("Checkout", "Heap", "Other"), names(cloudWatch));
+
+            // Counters carry their delta per tier
+            registry.counter("Checkout").inc(2);
+            registry.counter("Other").inc(3);
+            ticker.advance(9999);
+            reporter.report();
+            MetricDatum checkout = cloudWatch.delivered.get(0);
+            Assert.assertEquals(set("Checkout"), names(cloudWatch));
+            Assert.assertEquals(2.0, checkout.getValue(), 0.0);
+            Assert.assertEquals(Integer.valueOf(1), checkout.getStorageResolution());
+
+            ticker.advance(10001);
+            reporter.report();
+            Assert.assertEquals(set(), names(cloudWatch));
+
+            for (int i = 0; i < 3; i++) {
+                ticker.advance(10000);
+                reporter.report();
+                cloudWatch.delivered.clear();
+            }
+            ticker.advance(10000);
+            reporter.report();
+            MetricDatum other = cloudWatch.delivered.get(0);
+            Assert.assertEquals(set("Other"), names(cloudWatch));
+            Assert.assertEquals(3.0, other.getValue(), 0.0);
+            Assert.assertNull(other.getStorageResolution());
+
+            ticker.advance(TimeUnit.MINUTES.toMillis(4));
+            reporter.report();
+            Assert.assertEquals(set("Heap"), names(cloudWatch));
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void testUnstarted() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Checkout").inc();
+        registry.timer("Other").update(1, TimeUnit.MILLISECONDS);
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withTiers(new ReportTier(10, TimeUnit.SECONDS, ReportTier.ofType(Timer.class)));
+
+        // Without a schedule, every report is of everything
+        reporter.report();
+        Assert.assertEquals(set("Checkout", "Other"), names(cloudWatch));
+    }
+
+    /**
+     * @return distinct names of the delivered datums, which are then cleared
+     */
+    private static Set<String> names(FakeCloudWatch cloudWatch) {
+        Set<String> names = new TreeSet<String>();
+        for (MetricDatum datum : cloudWatch.delivered) {
+            names.add(datum.getMetricName());
+        }
+        cloudWatch.delivered.clear();
+        return names;
+    }
+
+    private static Set<String> set(String... names) {
+        return new TreeSet<String>(Arrays.asList(names));
+    }
+}
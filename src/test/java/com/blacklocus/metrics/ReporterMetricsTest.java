@@ -0,0 +1,198 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ReporterMetricsTest {
+
+    @Test
+    public void testRegistered() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Requests").inc();
+        registry.counter("Errors machine=a*").inc();
+        registry.register("Heap", new NumberGauge(5));
+
+        MetricRegistry selfRegistry = new MetricRegistry();
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withSelfMetricsRegistry(selfRegistry);
+        reporter.report();
+
+        Assert.assertEquals(2, count(selfRegistry, "CloudWatchReporter Metrics kind=counter namespace=test"));
+        Assert.assertEquals(3, count(selfRegistry, "CloudWatchReporter Datums kind=counter namespace=test"));
+        Assert.assertEquals(1, count(selfRegistry, "CloudWatchReporter Metrics kind=gauge namespace=test"));
+        Assert.assertEquals(1, count(selfRegistry, "CloudWatchReporter Requests namespace=test"));
+        Assert.assertEquals(1, selfRegistry.getTimers().get("CloudWatchReporter ReportTime namespace=test").getCount());
+        Assert.assertEquals(1, selfRegistry.getTimers().get("CloudWatchReporter RequestLatency namespace=test").getCount());
+        Assert.assertEquals(0, count(selfRegistry, "CloudWatchReporter FailedRequests namespace=test"));
+        Gauge age = selfRegistry.getGauges().get("CloudWatchReporter LastReportAge namespace=test");
+        Assert.assertTrue(((Long) age.getValue()) >= 0);
+
+        reporter.stop();
+        Assert.assertTrue(selfRegistry.getMetrics().isEmpty());
+    }
+
+    @Test
+    public void testFailures() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Requests").inc();
+
+        MetricRegistry selfRegistry = new MetricRegistry();
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(1);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withSelfMetricsRegistry(selfRegistry);
+        reporter.report();
+
+        Assert.assertEquals(1, count(selfRegistry, "CloudWatchReporter FailedRequests namespace=test"));
+    }
+
+    @Test
+    public void testSeparateNamespace() {
+        MetricRegistry registry = new MetricRegistry();
+        Timer timer = registry.timer("Latency");
+        timer.update(1, TimeUnit.MILLISECONDS);
+
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withSelfMetricsNamespace("test/reporter");
+        reporter.report();
+
+        int own = 0;
+        int self = 0;
+        for (PutMetricDataRequest request : cloudWatch.requests) {
+            for (MetricDatum datum : request.getMetricData()) {
+                if ("test".equals(request.getNamespace())) {
+                    own++;
+                } else {
+                    Assert.assertEquals("test/reporter", request.getNamespace());
+                    Assert.assertEquals("CloudWatchReporter", datum.getMetricName().split(" ")[0]);
+                    self++;
+                }
+            }
+        }
+        Assert.assertEquals(2, own);
+        Assert.assertTrue(self > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOneDestination() {
+        new CloudWatchReporter(new MetricRegistry(), "test", new FakeCloudWatch(0).client())
+                .withSelfMetricsRegistry(new MetricRegistry())
+                .withSelfMetricsNamespace("test/reporter");
+    }
+
+    @Test
+    public void testOncePerReportOfTiers() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Checkout").inc();
+        registry.counter("Other").inc();
+
+        MetricRegistry selfRegistry = new MetricRegistry();
+        FakeTicker ticker = new FakeTicker();
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withSelfMetricsRegistry(selfRegistry)
+                .withTiers(new ReportTier(10, TimeUnit.SECONDS, ReportTier.nameMatches("Checkout")));
+        reporter.ticker = ticker;
+        reporter.start(1, TimeUnit.MINUTES);
+        try {
+            // Both tiers are due, each sending a request.
+            reporter.report();
+            Assert.assertEquals(1, selfRegistry.getTimers().get("CloudWatchReporter ReportTime namespace=test").getCount());
+            Assert.assertEquals(2, count(selfRegistry, "CloudWatchReporter Requests namespace=test"));
+
+            registry.counter("Checkout").inc();
+            ticker.advance(10000);
+            reporter.report();
+            Assert.assertEquals(2, selfRegistry.getTimers().get("CloudWatchReporter ReportTime namespace=test").getCount());
+            Assert.assertEquals(3, count(selfRegistry, "CloudWatchReporter Requests namespace=test"));
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void testNamespaceAtReporterPeriod() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Checkout").inc();
+        registry.counter("Other").inc();
+
+        FakeTicker ticker = new FakeTicker();
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client())
+                .withSelfMetricsNamespace("test/reporter")
+                .withTiers(new ReportTier(10, TimeUnit.SECONDS, ReportTier.nameMatches("Checkout")));
+        reporter.ticker = ticker;
+        reporter.start(1, TimeUnit.MINUTES);
+        try {
+            reporter.report();
+            Assert.assertEquals(2.0, requestsSent(cloudWatch), 0.0);
+
+            // Only the 10 second tier is due. Self metrics wait for the reporter's own period.
+            cloudWatch.requests.clear();
+            registry.counter("Checkout").inc();
+            ticker.advance(10000);
+            reporter.report();
+            Assert.assertEquals(1, cloudWatch.requests.size());
+            Assert.assertEquals("test", cloudWatch.requests.get(0).getNamespace());
+
+            // Both are due again. Requests sending self metrics are not counted in them.
+            cloudWatch.requests.clear();
+            registry.counter("Checkout").inc();
+            registry.counter("Other").inc();
+            ticker.advance(50000);
+            reporter.report();
+            Assert.assertEquals(3, cloudWatch.requests.size());
+            Assert.assertEquals(3.0, requestsSent(cloudWatch), 0.0);
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    /**
+     * @return the value of the Requests self metric sent
+     */
+    private static double requestsSent(FakeCloudWatch cloudWatch) {
+        Double requests = null;
+        for (PutMetricDataRequest request : cloudWatch.requests) {
+            for (MetricDatum datum : request.getMetricData()) {
+                if ("test/reporter".equals(request.getNamespace())
+                        && datum.getMetricName().equals("CloudWatchReporter Requests")) {
+                    Assert.assertNull("sent once", requests);
+                    requests = datum.getValue();
+                }
+            }
+        }
+        Assert.assertNotNull(requests);
+        return requests;
+    }
+
+    private static long count(MetricRegistry registry, String name) {
+        Counter counter = registry.getCounters().get(name);
+        Assert.assertNotNull(name, counter);
+        return counter.getCount();
+    }
+}
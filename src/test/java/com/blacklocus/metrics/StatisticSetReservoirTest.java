@@ -0,0 +1,183 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StatisticSetReservoirTest {
+
+    @Test
+    public void testIntervals() {
+        StatisticSetReservoir reservoir = new StatisticSetReservoir();
+        reservoir.update(5);
+        reservoir.update(-2);
+        reservoir.update(10);
+        Assert.assertEquals(3, reservoir.size());
+
+        StatisticSetSnapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(3, snapshot.getCount());
+        Assert.assertEquals(13, snapshot.getSum());
+        Assert.assertEquals(-2, snapshot.getMin());
+        Assert.assertEquals(10, snapshot.getMax());
+        Assert.assertEquals(13.0 / 3, snapshot.getMean(), 0.0001);
+
+        // Reset by the read
+        Assert.assertEquals(0, reservoir.size());
+        snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMin());
+        Assert.assertEquals(0, snapshot.getMax());
+
+        reservoir.update(7);
+        snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(7, snapshot.getSum());
+        Assert.assertEquals(7, snapshot.getMin());
+        Assert.assertEquals(7, snapshot.getMax());
+    }
+
+    @Test
+    public void testReportedExactly() {
+        MetricRegistry registry = new MetricRegistry();
+        Timer timer = registry.register("Latency", new Timer(new StatisticSetReservoir()));
+        timer.update(1, TimeUnit.MILLISECONDS);
+        timer.update(3, TimeUnit.MILLISECONDS);
+
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", null);
+        List<MetricDatum> data = new ArrayList<MetricDatum>();
+        reporter.reportSampling(Maps.immutableEntry("Latency", timer), "timerStats", 0.000001, data);
+
+        StatisticSet statisticSet = Iterables.getOnlyElement(data).getStatisticValues();
+        Assert.assertEquals(2.0, statisticSet.getSampleCount(), 0.0);
+        Assert.assertEquals(4.0, statisticSet.getSum(), 0.0001);
+        Assert.assertEquals(1.0, statisticSet.getMinimum(), 0.0001);
+        Assert.assertEquals(3.0, statisticSet.getMaximum(), 0.0001);
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final StatisticSetHistogram histogram = new StatisticSetHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 1; i <= 100000; i++) {
+                        histogram.update(i);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        // Draining while writers run must not lose anything.
+        long count = 0;
+        long sum = 0;
+        for (Future<?> future : futures) {
+            StatisticSetSnapshot snapshot = histogram.getSnapshot();
+            count += snapshot.getCount();
+            sum += snapshot.getSum();
+            future.get();
+        }
+        executor.shutdown();
+        StatisticSetSnapshot snapshot = histogram.getSnapshot();
+        count += snapshot.getCount();
+        sum += snapshot.getSum();
+
+        Assert.assertEquals(800000, count);
+        Assert.assertEquals(800000, histogram.getCount());
+        Assert.assertEquals(8L * 100000 * 100001 / 2, sum);
+    }
+
+    @Test
+    public void testConcurrentSnapshotBounds() throws Exception {
+        final StatisticSetReservoir reservoir = new StatisticSetReservoir();
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 4; t++) {
+            final long value = t + 1;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    while (!done.get()) {
+                        reservoir.update(value);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        // Every snapshot that counts a value must also bound it, whichever side of the snapshot the update fell.
+        long count = 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (System.nanoTime() < deadline) {
+            StatisticSetSnapshot snapshot = reservoir.getSnapshot();
+            if (snapshot.getCount() > 0) {
+                Assert.assertTrue(snapshot.getMin() + " > " + snapshot.getMax(), snapshot.getMin() <= snapshot.getMax());
+                Assert.assertTrue(snapshot.getMin() >= 1 && snapshot.getMax() <= 4);
+                Assert.assertTrue(snapshot.getSum() >= snapshot.getCount() * snapshot.getMin());
+                Assert.assertTrue(snapshot.getSum() <= snapshot.getCount() * snapshot.getMax());
+            }
+            count += snapshot.getCount();
+        }
+        done.set(true);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        count += reservoir.getSnapshot().getCount();
+        Assert.assertEquals(reservoir.getCount(), count);
+    }
+
+    @Test
+    public void testStatisticSetTimer() throws Exception {
+        StatisticSetTimer timer = new StatisticSetTimer();
+        timer.update(2, TimeUnit.MILLISECONDS);
+        timer.update(-1, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("done", timer.time(new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        }));
+        timer.time().stop();
+
+        Assert.assertEquals(3, timer.getCount());
+        StatisticSetSnapshot snapshot = timer.getSnapshot();
+        Assert.assertEquals(3, snapshot.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(2), snapshot.getMax());
+        Assert.assertEquals(0, timer.getSnapshot().getCount());
+        Assert.assertEquals(3, timer.getCount());
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2013-2016 BlackLocus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blacklocus.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs against the Java 11 classes of the multi-release jar.
+ */
+public class ReporterEventsTest {
+
+    @Test
+    public void testRecorded() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Requests").inc();
+        FakeCloudWatch cloudWatch = new FakeCloudWatch(0);
+        CloudWatchReporter reporter = new CloudWatchReporter(registry, "test", cloudWatch.client());
+
+        Path dump = Files.createTempFile("metrics-cloudwatch", ".jfr");
+        List<RecordedEvent> events;
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable("com.blacklocus.metrics.ReportCycle");
+                recording.enable("com.blacklocus.metrics.PutMetricData");
+                recording.start();
+                reporter.report();
+                recording.stop();
+                recording.dump(dump);
+            } finally {
+                recording.close();
+            }
+            events = RecordingFile.readAllEvents(dump);
+        } finally {
+            Files.delete(dump);
+        }
+
+        List<RecordedEvent> reportCycles = named(events, "com.blacklocus.metrics.ReportCycle");
+        Assert.assertEquals(1, reportCycles.size());
+        RecordedEvent reportCycle = reportCycles.get(0);
+        Assert.assertEquals("test", reportCycle.getString("namespace"));
+        Assert.assertEquals(1, reportCycle.getLong("metrics"));
+        Assert.assertEquals(1, reportCycle.getLong("datums"));
+        Assert.assertEquals(1, reportCycle.getLong("submittedDatums"));
+        Assert.assertEquals(1, reportCycle.getInt("requests"));
+        Assert.assertTrue(reportCycle.getLong("translationTime") >= 0);
+
+        List<RecordedEvent> putMetricData = named(events, "com.blacklocus.metrics.PutMetricData");
+        Assert.assertEquals(1, putMetricData.size());
+        RecordedEvent request = putMetricData.get(0);
+        Assert.assertEquals("test", request.getString("namespace"));
+        Assert.assertEquals(1, request.getInt("datums"));
+        Assert.assertTrue(request.getInt("bytes") > 0);
+        Assert.assertTrue(request.getLong("latency") >= 0);
+        Assert.assertTrue(request.getBoolean("succeeded"));
+        Assert.assertNull(request.getString("failure"));
+    }
+
+    @Test
+    public void testSameSignaturesAsJava6() throws Exception {
+        // The Java 6 classes the main jar entries hold, without the Java 11 ones ahead of them on the classpath.
+        List<URL> urls = new ArrayList<URL>();
+        for (String dir : System.getProperty("main.classes").split(File.pathSeparator)) {
+            urls.add(new File(dir).toURI().toURL());
+        }
+        URLClassLoader java6 = new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+        try {
+            Class<?> stub = java6.loadClass(ReporterEvents.class.getName());
+            Assert.assertNotSame(ReporterEvents.class, stub);
+            Assert.assertEquals(stub.getModifiers(), ReporterEvents.class.getModifiers());
+            Assert.assertEquals(signatures(stub), signatures(ReporterEvents.class));
+        } finally {
+            java6.close();
+        }
+    }
+
+    static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> named = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                named.add(event);
+            }
+        }
+        return named;
+    }
+
+    /**
+     * @return the non-private methods and constructors, by name so that classes of either class loader compare equal
+     */
+    static Set<String> signatures(Class<?> type) {
+        Set<String> signatures = new TreeSet<String>();
+        for (Method method : type.getDeclaredMethods()) {
+            if (!Modifier.isPrivate(method.getModifiers()) && !method.isSynthetic()) {
+                signatures.add(Modifier.toString(method.getModifiers()) + " " + method.getReturnType().getName() + " "
+                        + method.getName() + params(method.getParameterTypes()) + params(method.getExceptionTypes()));
+            }
+        }
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            if (!Modifier.isPrivate(constructor.getModifiers())) {
+                signatures.add(Modifier.toString(constructor.getModifiers()) + " <init>"
+                        + params(constructor.getParameterTypes()));
+            }
+        }
+        return signatures;
+    }
+
+    static String params(Class<?>[] types) {
+        StringBuilder params = new StringBuilder("(");
+        for (Class<?> type : types) {
+            if (params.length() > 1) {
+                params.append(", ");
+            }
+            params.append(type.getName());
+        }
+        return params.append(')').toString();
+    }
+}